@@ -0,0 +1,65 @@
+package android.content;
+
+import android.os.Handler;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class Context {
+    public static final String WIFI_SERVICE = "wifi";
+
+    private final Map<String, Object> services = new ConcurrentHashMap<String, Object>();
+    private final Map<BroadcastReceiver, IntentFilter> receivers = new ConcurrentHashMap<BroadcastReceiver, IntentFilter>();
+    private File filesDir = new File(System.getProperty("java.io.tmpdir"), "android-files");
+
+    public Object getSystemService(String name) {
+        return services.get(name);
+    }
+
+    public void putSystemService(String name, Object service) {
+        services.put(name, service);
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public File getFilesDir() {
+        filesDir.mkdirs();
+        return filesDir;
+    }
+
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        receivers.put(receiver, filter);
+        return null;
+    }
+
+    private final Map<BroadcastReceiver, Handler> handlers = new ConcurrentHashMap<BroadcastReceiver, Handler>();
+
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter, String permission, Handler handler) {
+        if(handler != null) handlers.put(receiver, handler);
+        else handlers.remove(receiver);
+        return registerReceiver(receiver, filter);
+    }
+
+    public void unregisterReceiver(BroadcastReceiver receiver) {
+        handlers.remove(receiver);
+        if(receivers.remove(receiver) == null) {
+            throw new IllegalArgumentException("Receiver not registered: " + receiver);
+        }
+    }
+
+    public void sendBroadcast(Intent intent) {
+        for(Map.Entry<BroadcastReceiver, IntentFilter> entry : receivers.entrySet()) {
+            if(entry.getValue().hasAction(intent.getAction())) {
+                final BroadcastReceiver receiver = entry.getKey();
+                final Intent i = intent;
+                final Context self = this;
+                Handler handler = handlers.get(receiver);
+                if(handler == null) receiver.onReceive(this, intent);
+                else handler.post(new Runnable() { public void run() { receiver.onReceive(self, i); } });
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package android.content;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class IntentFilter {
+    private final List<String> actions = new ArrayList<String>();
+
+    public IntentFilter() {}
+
+    public IntentFilter(String action) {
+        addAction(action);
+    }
+
+    public final void addAction(String action) {
+        if(!actions.contains(action)) actions.add(action);
+    }
+
+    public final int countActions() {
+        return actions.size();
+    }
+
+    public final String getAction(int index) {
+        return actions.get(index);
+    }
+
+    public final boolean hasAction(String action) {
+        return action != null && actions.contains(action);
+    }
+
+    public final boolean matchAction(String action) {
+        return hasAction(action);
+    }
+}
@@ -0,0 +1,9 @@
+package android.net;
+
+public class ConnectivityManager {
+    public static final int TYPE_MOBILE = 0;
+    public static final int TYPE_WIFI = 1;
+    public static final int TYPE_WIMAX = 6;
+    public static final int TYPE_BLUETOOTH = 7;
+    public static final int TYPE_ETHERNET = 9;
+}
@@ -0,0 +1,15 @@
+package android.net;
+
+import android.os.Parcelable;
+
+public class DhcpInfo implements Parcelable {
+    public int ipAddress;
+    public int gateway;
+    public int netmask;
+    public int dns1;
+    public int dns2;
+    public int serverAddress;
+    public int leaseDuration;
+
+    public DhcpInfo() {}
+}
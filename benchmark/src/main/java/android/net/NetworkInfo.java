@@ -0,0 +1,69 @@
+package android.net;
+
+import android.os.Parcelable;
+
+public class NetworkInfo implements Parcelable {
+    public enum State {
+        CONNECTING, CONNECTED, SUSPENDED, DISCONNECTING, DISCONNECTED, UNKNOWN
+    }
+
+    public enum DetailedState {
+        IDLE(State.DISCONNECTED),
+        SCANNING(State.DISCONNECTED),
+        CONNECTING(State.CONNECTING),
+        AUTHENTICATING(State.CONNECTING),
+        OBTAINING_IPADDR(State.CONNECTING),
+        CONNECTED(State.CONNECTED),
+        SUSPENDED(State.SUSPENDED),
+        DISCONNECTING(State.DISCONNECTING),
+        DISCONNECTED(State.DISCONNECTED),
+        FAILED(State.DISCONNECTED),
+        BLOCKED(State.DISCONNECTED),
+        VERIFYING_POOR_LINK(State.CONNECTING),
+        CAPTIVE_PORTAL_CHECK(State.CONNECTING);
+
+        final State state;
+
+        DetailedState(State state) {
+            this.state = state;
+        }
+    }
+
+    private final int type;
+    private final int subtype;
+    private final String typeName;
+    private final String subtypeName;
+    private DetailedState detailedState = DetailedState.IDLE;
+    private String reason;
+    private String extraInfo;
+
+    // Hidden on the platform, only reachable through reflection
+    NetworkInfo(int type, int subtype, String typeName, String subtypeName) {
+        this.type = type;
+        this.subtype = subtype;
+        this.typeName = typeName;
+        this.subtypeName = subtypeName;
+    }
+
+    public void setDetailedState(DetailedState detailedState, String reason, String extraInfo) {
+        this.detailedState = detailedState;
+        this.reason = reason;
+        this.extraInfo = extraInfo;
+    }
+
+    public DetailedState getDetailedState() { return detailedState; }
+    public String getExtraInfo() { return extraInfo; }
+    public String getReason() { return reason; }
+    public State getState() { return detailedState.state; }
+    public int getSubtype() { return subtype; }
+    public String getSubtypeName() { return subtypeName; }
+    public int getType() { return type; }
+    public String getTypeName() { return typeName; }
+    public boolean isAvailable() { return true; }
+    public boolean isConnected() { return detailedState.state == State.CONNECTED; }
+    public boolean isConnectedOrConnecting() {
+        return detailedState.state == State.CONNECTED || detailedState.state == State.CONNECTING;
+    }
+    public boolean isFailover() { return false; }
+    public boolean isRoaming() { return false; }
+}
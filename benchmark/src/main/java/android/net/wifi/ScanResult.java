@@ -0,0 +1,23 @@
+package android.net.wifi;
+
+import android.os.Parcelable;
+
+public class ScanResult implements Parcelable {
+    public static final int CHANNEL_WIDTH_20MHZ = 0;
+    public static final int CHANNEL_WIDTH_40MHZ = 1;
+    public static final int CHANNEL_WIDTH_80MHZ = 2;
+    public static final int CHANNEL_WIDTH_160MHZ = 3;
+    public static final int CHANNEL_WIDTH_80MHZ_PLUS_MHZ = 4;
+
+    public String SSID;
+    public String BSSID;
+    public String capabilities;
+    public int level;
+    public int frequency;
+    public long timestamp;
+    public int channelWidth;
+    public int centerFreq0;
+    public int centerFreq1;
+
+    public ScanResult() {}
+}
@@ -0,0 +1,19 @@
+package android.net.wifi;
+
+import android.os.Parcelable;
+
+public enum SupplicantState implements Parcelable {
+    DISCONNECTED,
+    INTERFACE_DISABLED,
+    INACTIVE,
+    SCANNING,
+    AUTHENTICATING,
+    ASSOCIATING,
+    ASSOCIATED,
+    FOUR_WAY_HANDSHAKE,
+    GROUP_HANDSHAKE,
+    COMPLETED,
+    DORMANT,
+    UNINITIALIZED,
+    INVALID
+}
@@ -0,0 +1,60 @@
+package android.net.wifi;
+
+import android.os.Parcelable;
+
+import java.util.BitSet;
+
+public class WifiConfiguration implements Parcelable {
+    public static class AuthAlgorithm {
+        public static final int OPEN = 0;
+        public static final int SHARED = 1;
+        public static final int LEAP = 2;
+    }
+
+    public static class GroupCipher {
+        public static final int WEP40 = 0;
+        public static final int WEP104 = 1;
+        public static final int TKIP = 2;
+        public static final int CCMP = 3;
+    }
+
+    public static class KeyMgmt {
+        public static final int NONE = 0;
+        public static final int WPA_PSK = 1;
+        public static final int WPA_EAP = 2;
+        public static final int IEEE8021X = 3;
+    }
+
+    public static class PairwiseCipher {
+        public static final int NONE = 0;
+        public static final int TKIP = 1;
+        public static final int CCMP = 2;
+    }
+
+    public static class Protocol {
+        public static final int WPA = 0;
+        public static final int RSN = 1;
+    }
+
+    public static class Status {
+        public static final int CURRENT = 0;
+        public static final int DISABLED = 1;
+        public static final int ENABLED = 2;
+    }
+
+    public int networkId = -1;
+    public int status;
+    public String SSID;
+    public String BSSID;
+    public String preSharedKey;
+    public String[] wepKeys = new String[4];
+    public int wepTxKeyIndex;
+    public boolean hiddenSSID;
+    public BitSet allowedKeyManagement = new BitSet();
+    public BitSet allowedProtocols = new BitSet();
+    public BitSet allowedAuthAlgorithms = new BitSet();
+    public BitSet allowedPairwiseCiphers = new BitSet();
+    public BitSet allowedGroupCiphers = new BitSet();
+
+    public WifiConfiguration() {}
+}
@@ -0,0 +1,39 @@
+package android.net.wifi;
+
+import android.os.Parcelable;
+
+public class WifiInfo implements Parcelable {
+    private String bssid;
+    private String ssid = "<unknown ssid>";
+    private int frequency = -1;
+    private boolean hiddenSSID;
+    private int ipAddress;
+    private int linkSpeed = -1;
+    private String macAddress = "02:00:00:00:00:00";
+    private int networkId = -1;
+    private int rssi = -127;
+    private SupplicantState supplicantState = SupplicantState.UNINITIALIZED;
+
+    // Hidden on the platform, only reachable through reflection
+    WifiInfo() {}
+
+    public String getBSSID() { return bssid; }
+    public int getFrequency() { return frequency; }
+    public boolean getHiddenSSID() { return hiddenSSID; }
+    public int getIpAddress() { return ipAddress; }
+    public int getLinkSpeed() { return linkSpeed; }
+    public String getMacAddress() { return macAddress; }
+    public int getNetworkId() { return networkId; }
+    public int getRssi() { return rssi; }
+    public String getSSID() { return ssid; }
+    public SupplicantState getSupplicantState() { return supplicantState; }
+
+    void setBSSID(String bssid) { this.bssid = bssid; }
+    void setSSID(String ssid) { this.ssid = ssid; }
+    void setFrequency(int frequency) { this.frequency = frequency; }
+    void setIpAddress(int ipAddress) { this.ipAddress = ipAddress; }
+    void setLinkSpeed(int linkSpeed) { this.linkSpeed = linkSpeed; }
+    void setNetworkId(int networkId) { this.networkId = networkId; }
+    void setRssi(int rssi) { this.rssi = rssi; }
+    void setSupplicantState(SupplicantState supplicantState) { this.supplicantState = supplicantState; }
+}
@@ -0,0 +1,131 @@
+package android.net.wifi;
+
+import android.net.DhcpInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class WifiManager {
+    public static final String NETWORK_IDS_CHANGED_ACTION = "android.net.wifi.NETWORK_IDS_CHANGED";
+    public static final String NETWORK_STATE_CHANGED_ACTION = "android.net.wifi.STATE_CHANGE";
+    public static final String RSSI_CHANGED_ACTION = "android.net.wifi.RSSI_CHANGED";
+    public static final String SCAN_RESULTS_AVAILABLE_ACTION = "android.net.wifi.SCAN_RESULTS";
+    public static final String SUPPLICANT_CONNECTION_CHANGE_ACTION = "android.net.wifi.supplicant.CONNECTION_CHANGE";
+    public static final String SUPPLICANT_STATE_CHANGED_ACTION = "android.net.wifi.supplicant.STATE_CHANGE";
+    public static final String WIFI_STATE_CHANGED_ACTION = "android.net.wifi.WIFI_STATE_CHANGED";
+
+    public static final String EXTRA_NETWORK_INFO = "networkInfo";
+    public static final String EXTRA_BSSID = "bssid";
+    public static final String EXTRA_WIFI_INFO = "wifiInfo";
+    public static final String EXTRA_NEW_RSSI = "newRssi";
+    public static final String EXTRA_RESULTS_UPDATED = "resultsUpdated";
+    public static final String EXTRA_SUPPLICANT_CONNECTED = "connected";
+    public static final String EXTRA_NEW_STATE = "newState";
+    public static final String EXTRA_SUPPLICANT_ERROR = "supplicantError";
+    public static final String EXTRA_WIFI_STATE = "wifi_state";
+    public static final String EXTRA_PREVIOUS_WIFI_STATE = "previous_wifi_state";
+
+    public static final int ERROR_AUTHENTICATING = 1;
+
+    public static final int WIFI_STATE_DISABLING = 0;
+    public static final int WIFI_STATE_DISABLED = 1;
+    public static final int WIFI_STATE_ENABLING = 2;
+    public static final int WIFI_STATE_ENABLED = 3;
+    public static final int WIFI_STATE_UNKNOWN = 4;
+
+    // Hidden on the platform
+    public static final String WIFI_AP_STATE_CHANGED_ACTION = "android.net.wifi.WIFI_AP_STATE_CHANGED";
+    public static final String EXTRA_WIFI_AP_STATE = "wifi_state";
+    public static final String EXTRA_PREVIOUS_WIFI_AP_STATE = "previous_wifi_state";
+    public static final int WIFI_AP_STATE_DISABLING = 10;
+    public static final int WIFI_AP_STATE_DISABLED = 11;
+    public static final int WIFI_AP_STATE_ENABLING = 12;
+    public static final int WIFI_AP_STATE_ENABLED = 13;
+    public static final int WIFI_AP_STATE_FAILED = 14;
+
+    private final List<WifiConfiguration> configuredNetworks = new ArrayList<WifiConfiguration>();
+    private List<ScanResult> scanResults = new ArrayList<ScanResult>();
+    private WifiInfo connectionInfo = new WifiInfo();
+    private DhcpInfo dhcpInfo = new DhcpInfo();
+    private WifiConfiguration wifiApConfiguration = new WifiConfiguration();
+    private int wifiState = WIFI_STATE_ENABLED;
+    private int wifiApState = WIFI_AP_STATE_DISABLED;
+    private int nextNetworkId = 0;
+
+    public WifiManager() {}
+
+    // Stub only, lets the host populate the scan results
+    public synchronized void setScanResults(List<ScanResult> scanResults) {
+        this.scanResults = new ArrayList<ScanResult>(scanResults);
+    }
+
+    public synchronized int addNetwork(WifiConfiguration config) {
+        config.networkId = nextNetworkId++;
+        configuredNetworks.add(config);
+        return config.networkId;
+    }
+
+    public synchronized int updateNetwork(WifiConfiguration config) {
+        for(int i = 0; i < configuredNetworks.size(); i++) {
+            if(configuredNetworks.get(i).networkId == config.networkId) {
+                configuredNetworks.set(i, config);
+                return config.networkId;
+            }
+        }
+
+        return -1;
+    }
+
+    public synchronized boolean removeNetwork(int netId) {
+        for(int i = 0; i < configuredNetworks.size(); i++) {
+            if(configuredNetworks.get(i).networkId == netId) {
+                configuredNetworks.remove(i);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public synchronized List<WifiConfiguration> getConfiguredNetworks() {
+        return new ArrayList<WifiConfiguration>(configuredNetworks);
+    }
+
+    public synchronized List<ScanResult> getScanResults() {
+        return new ArrayList<ScanResult>(scanResults);
+    }
+
+    public boolean enableNetwork(int netId, boolean attemptConnect) { return true; }
+    public boolean disableNetwork(int netId) { return true; }
+    public boolean disconnect() { return true; }
+    public boolean reconnect() { return true; }
+    public boolean reassociate() { return true; }
+    public boolean saveConfiguration() { return true; }
+    public boolean startScan() { return true; }
+    public boolean isScanAlwaysAvailable() { return false; }
+    public WifiInfo getConnectionInfo() { return connectionInfo; }
+    public DhcpInfo getDhcpInfo() { return dhcpInfo; }
+    public int getWifiState() { return wifiState; }
+    public boolean isWifiEnabled() { return wifiState == WIFI_STATE_ENABLED; }
+
+    public boolean setWifiEnabled(boolean enabled) {
+        wifiState = enabled ? WIFI_STATE_ENABLED : WIFI_STATE_DISABLED;
+        return true;
+    }
+
+    // Hidden on the platform
+    public WifiConfiguration getWifiApConfiguration() { return wifiApConfiguration; }
+    public int getWifiApState() { return wifiApState; }
+    public boolean isWifiApEnabled() { return wifiApState == WIFI_AP_STATE_ENABLED; }
+
+    public boolean setWifiApConfiguration(WifiConfiguration config) {
+        wifiApConfiguration = config;
+        return true;
+    }
+
+    public boolean setWifiApEnabled(WifiConfiguration config, boolean enabled) {
+        if(config != null) wifiApConfiguration = config;
+        wifiApState = enabled ? WIFI_AP_STATE_ENABLED : WIFI_AP_STATE_DISABLED;
+        return true;
+    }
+}
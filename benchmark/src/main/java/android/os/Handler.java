@@ -0,0 +1,22 @@
+package android.os;
+
+public class Handler {
+    private final Looper looper;
+
+    public Handler() {
+        this(Looper.getMainLooper());
+    }
+
+    public Handler(Looper looper) {
+        this.looper = looper;
+    }
+
+    public Looper getLooper() {
+        return looper;
+    }
+
+    public boolean post(Runnable r) {
+        looper.executor.execute(r);
+        return true;
+    }
+}
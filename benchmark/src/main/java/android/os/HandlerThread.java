@@ -0,0 +1,30 @@
+package android.os;
+
+import java.util.concurrent.Executors;
+
+public class HandlerThread extends Thread {
+    private Looper looper;
+
+    public HandlerThread(String name) {
+        super(name);
+    }
+
+    @Override
+    public synchronized void start() {
+        looper = new Looper();
+    }
+
+    public Looper getLooper() {
+        return looper;
+    }
+
+    public boolean quit() {
+        looper.quit();
+        return true;
+    }
+
+    public boolean quitSafely() {
+        looper.quitSafely();
+        return true;
+    }
+}
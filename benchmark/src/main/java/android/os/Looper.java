@@ -0,0 +1,39 @@
+package android.os;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+public class Looper {
+    private static final ThreadLocal<Looper> CURRENT = new ThreadLocal<Looper>();
+    private static final Looper MAIN = new Looper();
+
+    final ExecutorService executor;
+
+    Looper() {
+        final Looper self = this;
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    public void run() { CURRENT.set(self); r.run(); }
+                });
+            }
+        });
+    }
+
+    public static Looper getMainLooper() {
+        return MAIN;
+    }
+
+    public static Looper myLooper() {
+        return CURRENT.get();
+    }
+
+    public void quit() {
+        executor.shutdownNow();
+    }
+
+    public void quitSafely() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,13 @@
+package android.provider;
+
+import android.content.Context;
+
+public final class Settings {
+    public static final String ACTION_MANAGE_WRITE_SETTINGS = "android.settings.action.MANAGE_WRITE_SETTINGS";
+
+    public static final class System {
+        public static boolean canWrite(Context context) {
+            return true;
+        }
+    }
+}
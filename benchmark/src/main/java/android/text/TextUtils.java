@@ -0,0 +1,16 @@
+package android.text;
+
+public class TextUtils {
+    public static String join(CharSequence delimiter, Object[] tokens) {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < tokens.length; i++) {
+            if(i > 0) sb.append(delimiter);
+            sb.append(tokens[i]);
+        }
+        return sb.toString();
+    }
+
+    public static boolean isEmpty(CharSequence str) {
+        return str == null || str.length() == 0;
+    }
+}
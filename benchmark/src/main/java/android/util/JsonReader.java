@@ -0,0 +1,273 @@
+package android.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal pull parser with the same surface as the platform reader. Reads the
+ * whole input up front, which is fine for the sizes used off device.
+ */
+public final class JsonReader implements Closeable {
+    private static final int EMPTY_ARRAY = 1;
+    private static final int NONEMPTY_ARRAY = 2;
+    private static final int EMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int NONEMPTY_OBJECT = 5;
+    private static final int EMPTY_DOCUMENT = 6;
+    private static final int NONEMPTY_DOCUMENT = 7;
+
+    private final String in;
+    private int pos = 0;
+    private final List<Integer> stack = new ArrayList<Integer>();
+    private JsonToken token;
+    private String value;
+
+    public JsonReader(Reader reader) {
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[4096];
+
+        try {
+            int n;
+            while((n = reader.read(buffer)) != -1) sb.append(buffer, 0, n);
+        } catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        in = sb.toString();
+        stack.add(EMPTY_DOCUMENT);
+    }
+
+    public void setLenient(boolean lenient) {}
+
+    public void beginArray() throws IOException {
+        expect(JsonToken.BEGIN_ARRAY);
+        stack.add(EMPTY_ARRAY);
+        token = null;
+    }
+
+    public void endArray() throws IOException {
+        expect(JsonToken.END_ARRAY);
+        stack.remove(stack.size() - 1);
+        token = null;
+    }
+
+    public void beginObject() throws IOException {
+        expect(JsonToken.BEGIN_OBJECT);
+        stack.add(EMPTY_OBJECT);
+        token = null;
+    }
+
+    public void endObject() throws IOException {
+        expect(JsonToken.END_OBJECT);
+        stack.remove(stack.size() - 1);
+        token = null;
+    }
+
+    public boolean hasNext() throws IOException {
+        JsonToken t = peek();
+        return t != JsonToken.END_OBJECT && t != JsonToken.END_ARRAY && t != JsonToken.END_DOCUMENT;
+    }
+
+    public JsonToken peek() throws IOException {
+        if(token != null) return token;
+
+        int top = stack.get(stack.size() - 1);
+
+        switch(top) {
+            case EMPTY_ARRAY:
+                replaceTop(NONEMPTY_ARRAY);
+                if(nextNonWhitespace() == ']') {
+                    pos++;
+                    return token = JsonToken.END_ARRAY;
+                }
+                return readValue();
+            case NONEMPTY_ARRAY: {
+                char c = nextNonWhitespace();
+                pos++;
+                if(c == ']') return token = JsonToken.END_ARRAY;
+                if(c != ',') throw syntax("Unterminated array");
+                return readValue();
+            }
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT: {
+                char c = nextNonWhitespace();
+                if(top == NONEMPTY_OBJECT) {
+                    pos++;
+                    if(c == '}') return token = JsonToken.END_OBJECT;
+                    if(c != ',') throw syntax("Unterminated object");
+                    c = nextNonWhitespace();
+                } else if(c == '}') {
+                    pos++;
+                    return token = JsonToken.END_OBJECT;
+                }
+
+                if(c != '"') throw syntax("Expected name");
+                pos++;
+                value = readString();
+                replaceTop(DANGLING_NAME);
+                return token = JsonToken.NAME;
+            }
+            case DANGLING_NAME: {
+                if(nextNonWhitespace() != ':') throw syntax("Expected ':'");
+                pos++;
+                replaceTop(NONEMPTY_OBJECT);
+                return readValue();
+            }
+            case EMPTY_DOCUMENT:
+                replaceTop(NONEMPTY_DOCUMENT);
+                return readValue();
+            default:
+                return token = JsonToken.END_DOCUMENT;
+        }
+    }
+
+    public String nextName() throws IOException {
+        expect(JsonToken.NAME);
+        token = null;
+        return value;
+    }
+
+    public String nextString() throws IOException {
+        JsonToken t = peek();
+        if(t != JsonToken.STRING && t != JsonToken.NUMBER) throw new IllegalStateException("Expected a string but was " + t);
+        token = null;
+        return value;
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(JsonToken.BOOLEAN);
+        token = null;
+        return value.equals("true");
+    }
+
+    public void nextNull() throws IOException {
+        expect(JsonToken.NULL);
+        token = null;
+    }
+
+    public double nextDouble() throws IOException {
+        return Double.parseDouble(nextString());
+    }
+
+    public long nextLong() throws IOException {
+        String s = nextString();
+        try {
+            return Long.parseLong(s);
+        } catch(NumberFormatException e) {
+            double d = Double.parseDouble(s);
+            if((long) d != d) throw e;
+            return (long) d;
+        }
+    }
+
+    public int nextInt() throws IOException {
+        long l = nextLong();
+        if((int) l != l) throw new NumberFormatException("Expected an int but was " + l);
+        return (int) l;
+    }
+
+    public void skipValue() throws IOException {
+        int depth = 0;
+
+        do {
+            JsonToken t = peek();
+            if(t == JsonToken.BEGIN_ARRAY) {
+                beginArray();
+                depth++;
+            } else if(t == JsonToken.BEGIN_OBJECT) {
+                beginObject();
+                depth++;
+            } else if(t == JsonToken.END_ARRAY) {
+                endArray();
+                depth--;
+            } else if(t == JsonToken.END_OBJECT) {
+                endObject();
+                depth--;
+            } else {
+                token = null;
+            }
+        } while(depth != 0);
+    }
+
+    @Override
+    public void close() {}
+
+    private void expect(JsonToken expected) throws IOException {
+        JsonToken t = peek();
+        if(t != expected) throw new IllegalStateException("Expected " + expected + " but was " + t);
+    }
+
+    private void replaceTop(int value) {
+        stack.set(stack.size() - 1, value);
+    }
+
+    private JsonToken readValue() throws IOException {
+        char c = nextNonWhitespace();
+
+        switch(c) {
+            case '{':
+                pos++;
+                return token = JsonToken.BEGIN_OBJECT;
+            case '[':
+                pos++;
+                return token = JsonToken.BEGIN_ARRAY;
+            case '"':
+                pos++;
+                value = readString();
+                return token = JsonToken.STRING;
+            default:
+                int start = pos;
+                while(pos < in.length() && ",]} \t\r\n".indexOf(in.charAt(pos)) < 0) pos++;
+                value = in.substring(start, pos);
+                if(value.equals("null")) return token = JsonToken.NULL;
+                if(value.equals("true") || value.equals("false")) return token = JsonToken.BOOLEAN;
+                if(value.isEmpty()) throw syntax("Expected value");
+                return token = JsonToken.NUMBER;
+        }
+    }
+
+    private String readString() throws IOException {
+        StringBuilder sb = new StringBuilder();
+
+        while(pos < in.length()) {
+            char c = in.charAt(pos++);
+            if(c == '"') return sb.toString();
+            if(c == '\\') {
+                char e = in.charAt(pos++);
+                switch(e) {
+                    case 'n': sb.append('\n'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        sb.append((char) Integer.parseInt(in.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default: sb.append(e);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+
+        throw syntax("Unterminated string");
+    }
+
+    private char nextNonWhitespace() throws IOException {
+        while(pos < in.length()) {
+            char c = in.charAt(pos);
+            if(c != ' ' && c != '\t' && c != '\r' && c != '\n') return c;
+            pos++;
+        }
+
+        throw syntax("End of input");
+    }
+
+    private IOException syntax(String message) {
+        return new IOException(message + " at character " + pos);
+    }
+}
@@ -0,0 +1,73 @@
+package dk.kapetanovic.wifimanager;
+
+import android.content.Intent;
+import android.net.wifi.WifiManager;
+
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The broadcast receiver turning intents into events, with the scan
+ * results included in onscanresultsavailable in either format. Includes
+ * handing the broadcast to the main thread and waiting for the event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+    @Param({ "10", "100", "1000", "5000" })
+    public int accessPoints;
+
+    @Param({ "none", "json", "binary" })
+    public String scanResults;
+
+    private PluginFixture fixture;
+    private Intent scanResultsAvailable;
+    private Intent rssiChanged;
+
+    @Setup(Level.Trial)
+    public void setUp() throws JSONException {
+        fixture = new PluginFixture(accessPoints);
+        fixture.execute("onChange", "[]");
+        fixture.execute("setEventOptions", "[{\"scanResults\":\"" + scanResults + "\"}]");
+
+        scanResultsAvailable = new Intent(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION);
+        scanResultsAvailable.putExtra(WifiManager.EXTRA_RESULTS_UPDATED, true);
+
+        rssiChanged = new Intent(WifiManager.RSSI_CHANGED_ACTION);
+        rssiChanged.putExtra(WifiManager.EXTRA_NEW_RSSI, -55);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.tearDown();
+    }
+
+    @Benchmark
+    public PluginResult scanResultsAvailable() throws InterruptedException {
+        return fixture.broadcast(scanResultsAvailable);
+    }
+
+    @Benchmark
+    public PluginResult rssiChanged() throws InterruptedException {
+        return fixture.broadcast(rssiChanged);
+    }
+}
@@ -0,0 +1,66 @@
+package dk.kapetanovic.wifimanager;
+
+import android.content.Intent;
+import android.net.wifi.WifiManager;
+
+import org.json.JSONObject;
+
+import java.util.Locale;
+
+/**
+ * Measures how long the receiver occupies the main thread during a storm of
+ * scan broadcasts with the scan results included in the event, once with
+ * broadcasts received on the main thread and once on a background thread.
+ * The time is what getPluginStats reports for the receiver per thread.
+ *
+ * Not a JMH benchmark since the interesting number is the time spent on
+ * another thread than the one sending the broadcasts. Run it with
+ *
+ *     java -cp target/benchmarks.jar dk.kapetanovic.wifimanager.BroadcastThreadMeasurement [accessPoints] [broadcasts]
+ */
+public class BroadcastThreadMeasurement {
+    public static void main(String[] args) throws Exception {
+        int accessPoints = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int broadcasts = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        for(String thread : new String[] { "main", "background" }) {
+            measure(thread, accessPoints, broadcasts);
+        }
+
+        // The stub loopers keep their threads alive
+        System.exit(0);
+    }
+
+    private static void measure(String broadcastThread, int accessPoints, int broadcasts) throws Exception {
+        PluginFixture fixture = new PluginFixture(accessPoints, broadcastThread);
+        fixture.execute("onChange", "[]");
+        fixture.execute("setEventOptions", "[{\"scanResults\":\"json\"}]");
+
+        Intent intent = new Intent(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION);
+        intent.putExtra(WifiManager.EXTRA_RESULTS_UPDATED, true);
+
+        // Warm up, then measure the same number of broadcasts
+        for(int i = 0; i < broadcasts; i++) fixture.broadcast(intent);
+        fixture.execute("resetPluginStats", "[]");
+        for(int i = 0; i < broadcasts; i++) fixture.broadcast(intent);
+
+        // Results are wrapped as { data }
+        JSONObject result = new JSONObject(fixture.execute("getPluginStats", "[]").getMessage());
+        JSONObject stats = result.getJSONObject("data");
+        JSONObject receiver = stats.getJSONObject("receiver");
+
+        System.out.println(String.format(Locale.US, "BROADCAST_THREAD=%s, %d access points, %d broadcasts",
+                broadcastThread, accessPoints, broadcasts));
+
+        for(String thread : new String[] { "main", "background" }) {
+            JSONObject metric = receiver.optJSONObject(thread);
+            long calls = metric == null ? 0 : metric.getLong("calls");
+            long meanMicros = metric == null ? 0 : metric.getLong("meanMicros");
+
+            System.out.println(String.format(Locale.US, "  %-10s %5d broadcasts, mean %7.3f ms, total %8.1f ms",
+                    thread, calls, meanMicros / 1000.0, calls * meanMicros / 1000.0));
+        }
+
+        fixture.tearDown();
+    }
+}
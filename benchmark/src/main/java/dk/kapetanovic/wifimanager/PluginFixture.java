@@ -0,0 +1,181 @@
+package dk.kapetanovic.wifimanager;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Intent;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaInterface;
+import org.apache.cordova.CordovaPlugin;
+import org.apache.cordova.CordovaPreferences;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A plugin instance running on the simulated backend. The simulator is
+ * static apart from the initial scan, so every call sees the same access
+ * points. Every action used by the benchmarks runs inline and the scan
+ * results cache is off, so each call does the full encoding work on the
+ * calling thread.
+ *
+ * Broadcasts go through the plugin's registration like the simulator's
+ * own, nothing is registered with the system on the simulated backend.
+ */
+class PluginFixture {
+    private static final long SCAN_TIMEOUT = 10000;
+
+    final Application application = new Application();
+    final Activity activity = new Activity(application);
+    final WifiManagerPlugin plugin = new WifiManagerPlugin();
+
+    private final ExecutorService threadPool = Executors.newCachedThreadPool();
+    private final AtomicInteger results = new AtomicInteger();
+    private final BroadcastRegistration registration;
+    private volatile PluginResult lastResult;
+
+    private final CordovaWebView webView = new CordovaWebView() {
+        @Override
+        public void sendPluginResult(PluginResult result, String callbackId) {
+            lastResult = result;
+            results.incrementAndGet();
+        }
+    };
+
+    private final CordovaInterface cordova = new CordovaInterface() {
+        @Override
+        public void startActivityForResult(CordovaPlugin command, Intent intent, int requestCode) {}
+
+        @Override
+        public Activity getActivity() {
+            return activity;
+        }
+
+        @Override
+        public ExecutorService getThreadPool() {
+            return threadPool;
+        }
+
+        @Override
+        public void requestPermission(CordovaPlugin plugin, int requestCode, String permission) {}
+
+        @Override
+        public void requestPermissions(CordovaPlugin plugin, int requestCode, String[] permissions) {}
+
+        @Override
+        public boolean hasPermission(String permission) {
+            return true;
+        }
+    };
+
+    PluginFixture(int accessPoints) {
+        this(accessPoints, "main");
+    }
+
+    /**
+     * Waits for the simulator's initial scan of the given number of access
+     * points. Broadcasts are received on the main thread or on a background
+     * thread, see BROADCAST_THREAD.
+     */
+    PluginFixture(int accessPoints, String broadcastThread) {
+        CordovaPreferences preferences = new CordovaPreferences();
+        preferences.set("WifiManagerExecutionPolicy",
+                "addNetwork:inline,getConfiguredNetworks:inline,getScanResults:inline");
+        preferences.set("WifiManagerScanResultsMaxAge", "0");
+        preferences.set("WifiManagerBroadcastThread", broadcastThread);
+        preferences.set("WifiManagerBackend", "simulator");
+        preferences.set("WifiManagerSimulator", "accessPoints:" + accessPoints +
+                ",churn:0,rssiDrift:0,scanInterval:0,rssiInterval:0");
+
+        plugin.privateInitialize("WifiManagerPlugin", cordova, webView, preferences);
+        plugin.onResume(false);
+        registration = getRegistration(plugin);
+
+        if(accessPoints > 0) awaitScanResults();
+    }
+
+    /**
+     * Runs the action and returns the result it sent.
+     */
+    PluginResult execute(String action, String rawArgs) throws JSONException {
+        lastResult = null;
+        plugin.execute(action, rawArgs, new CallbackContext(action, webView));
+        return lastResult;
+    }
+
+    /**
+     * Delivers the broadcast, waits for the event sent for it and returns
+     * the event. Only for broadcasts that are sent as an event.
+     */
+    PluginResult broadcast(Intent intent) throws InterruptedException {
+        int count = results.get();
+        registration.dispatch(intent);
+        awaitResults(count + 1);
+        return lastResult;
+    }
+
+    /**
+     * Waits until at least count results were sent, including events.
+     */
+    void awaitResults(int count) throws InterruptedException {
+        while(results.get() < count) Thread.yield();
+    }
+
+    void tearDown() {
+        plugin.onPause(false);
+        plugin.onDestroy();
+        threadPool.shutdown();
+    }
+
+    static List<String> createWifiConfigurations(int count) {
+        List<String> configs = new ArrayList<String>();
+
+        for(int i = 0; i < count; i++) {
+            configs.add("{\"SSID\":\"\\\"network-" + i + "\\\"\"," +
+                    "\"allowedAuthAlgorithms\":{\"OPEN\":true}," +
+                    "\"allowedGroupCiphers\":{\"CCMP\":true,\"TKIP\":true}," +
+                    "\"allowedKeyManagement\":{\"WPA_PSK\":true}," +
+                    "\"allowedPairwiseCiphers\":{\"CCMP\":true,\"TKIP\":true}," +
+                    "\"allowedProtocols\":{\"RSN\":true,\"WPA\":true}," +
+                    "\"hiddenSSID\":false," +
+                    "\"preSharedKey\":\"\\\"password-" + i + "\\\"\"," +
+                    "\"status\":\"ENABLED\"," +
+                    "\"wepKeys\":[null,null,null,null]," +
+                    "\"wepTxKeyIndex\":0}");
+        }
+
+        return configs;
+    }
+
+    private static BroadcastRegistration getRegistration(WifiManagerPlugin plugin) {
+        try {
+            Field field = WifiManagerPlugin.class.getDeclaredField("registration");
+            field.setAccessible(true);
+            return (BroadcastRegistration) field.get(plugin);
+        } catch(Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void awaitScanResults() {
+        long deadline = System.currentTimeMillis() + SCAN_TIMEOUT;
+
+        try {
+            while("[]".equals(execute("getScanResults", "[{\"fields\":[\"BSSID\"]}]").getMessage())) {
+                if(System.currentTimeMillis() > deadline) throw new IllegalStateException("No scan results");
+                Thread.sleep(10);
+            }
+        } catch(JSONException e) {
+            throw new IllegalStateException(e);
+        } catch(InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
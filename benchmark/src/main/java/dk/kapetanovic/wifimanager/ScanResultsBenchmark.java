@@ -0,0 +1,61 @@
+package dk.kapetanovic.wifimanager;
+
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * getScanResults end to end, from the action arguments to the encoded
+ * plugin result, for the JSON, projected JSON and binary formats.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScanResultsBenchmark {
+    @Param({ "10", "100", "1000", "5000" })
+    public int accessPoints;
+
+    private PluginFixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = new PluginFixture(accessPoints);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.tearDown();
+    }
+
+    @Benchmark
+    public PluginResult json() throws JSONException {
+        return fixture.execute("getScanResults", "[]");
+    }
+
+    @Benchmark
+    public PluginResult jsonProjected() throws JSONException {
+        return fixture.execute("getScanResults", "[{\"fields\":[\"BSSID\",\"SSID\",\"level\"]}]");
+    }
+
+    @Benchmark
+    public PluginResult binary() throws JSONException {
+        return fixture.execute("getScanResults", "[{\"format\":\"binary\"}]");
+    }
+}
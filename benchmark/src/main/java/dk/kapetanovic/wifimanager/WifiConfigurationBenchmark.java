@@ -0,0 +1,80 @@
+package dk.kapetanovic.wifimanager;
+
+import android.net.wifi.WifiConfiguration;
+
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding the configured networks with getConfiguredNetworks, and decoding
+ * the same number of configurations from their JSON arguments.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WifiConfigurationBenchmark {
+    @Param({ "1", "10", "100", "500" })
+    public int networks;
+
+    private PluginFixture fixture;
+    private List<String> configs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws JSONException {
+        fixture = new PluginFixture(0);
+        configs = PluginFixture.createWifiConfigurations(networks);
+
+        for(String config : configs) fixture.execute("addNetwork", "[" + config + "]");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.tearDown();
+    }
+
+    @Benchmark
+    public PluginResult getConfiguredNetworks() throws JSONException {
+        return fixture.execute("getConfiguredNetworks", "[]");
+    }
+
+    @Benchmark
+    public PluginResult getConfiguredNetworksProjected() throws JSONException {
+        return fixture.execute("getConfiguredNetworks", "[{\"fields\":[\"networkId\",\"SSID\"]}]");
+    }
+
+    @Benchmark
+    public void decodeFromJSONObject(Blackhole blackhole) throws JSONException {
+        for(String config : configs) {
+            WifiConfiguration wifiConfig = WifiConfigurationDecoder.fromJSON(new JSONObject(config));
+            blackhole.consume(wifiConfig);
+        }
+    }
+
+    @Benchmark
+    public void decodeStreaming(Blackhole blackhole) throws JSONException {
+        for(String config : configs) {
+            blackhole.consume(WifiConfigurationDecoder.readArgs("[" + config + "]"));
+        }
+    }
+}
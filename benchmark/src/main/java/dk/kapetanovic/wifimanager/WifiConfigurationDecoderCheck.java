@@ -0,0 +1,169 @@
+package dk.kapetanovic.wifimanager;
+
+import android.net.wifi.WifiConfiguration;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that the streaming decoder gives the same WifiConfiguration as
+ * decoding the parsed JSONObject, for random configurations with missing,
+ * null and unknown properties, string encoded numbers and every flag of the
+ * allowed* objects. Numbers given for strings are checked against fixed
+ * values first. Exits with 1 on the first difference. Run it with
+ *
+ *     java -cp target/benchmarks.jar dk.kapetanovic.wifimanager.WifiConfigurationDecoderCheck [count] [seed]
+ */
+public class WifiConfigurationDecoderCheck {
+    private static final String[][] FLAGS = {
+            { "allowedAuthAlgorithms", "LEAP", "OPEN", "SHARED" },
+            { "allowedGroupCiphers", "CCMP", "TKIP", "WEP104", "WEP40" },
+            { "allowedKeyManagement", "IEEE8021X", "NONE", "WPA_EAP", "WPA_PSK" },
+            { "allowedPairwiseCiphers", "CCMP", "NONE", "TKIP" },
+            { "allowedProtocols", "RSN", "WPA" }
+    };
+
+    private static final String[] STATUSES = { "CURRENT", "DISABLED", "ENABLED", "UNKNOWN" };
+
+    // Numbers where strings are expected, and what Android's getString gives
+    // for them. The org.json on this classpath refuses them, so they are not
+    // compared against fromJSON.
+    private static final String[][] NUMBERS = {
+            { "12", "12" }, { "-0", "0" }, { "12345678901", "12345678901" }, { "1.0", "1.0" },
+            { "0.1", "0.1" }, { "1e2", "100.0" }, { "1.5E3", "1500.0" }, { "-2.5e-1", "-0.25" }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 13000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        Random random = new Random(seed);
+
+        for(String[] number : NUMBERS) {
+            String difference = compareNumber(number[0], number[1]);
+
+            if(difference != null) {
+                System.out.println("Difference in " + difference + " for " + number[0]);
+                System.exit(1);
+            }
+        }
+
+        for(int i = 0; i < count; i++) {
+            String config = createConfiguration(random).toString();
+            String difference = compare(config);
+
+            if(difference != null) {
+                System.out.println("Difference in " + difference + " for " + config);
+                System.exit(1);
+            }
+        }
+
+        System.out.println(count + " configurations and " + NUMBERS.length + " numbers decoded the same way");
+    }
+
+    private static String compare(String config) {
+        WifiConfiguration expected;
+        WifiConfiguration actual;
+
+        try {
+            expected = WifiConfigurationDecoder.fromJSON(new JSONObject(config));
+        } catch(JSONException e) {
+            expected = null;
+        }
+
+        try {
+            actual = (WifiConfiguration) WifiConfigurationDecoder.readArgs("[" + config + "]").get(0);
+        } catch(JSONException e) {
+            actual = null;
+        }
+
+        if(expected == null || actual == null) return expected == actual ? null : "errors";
+
+        if(!equal(expected.BSSID, actual.BSSID)) return "BSSID";
+        if(!equal(expected.SSID, actual.SSID)) return "SSID";
+        if(expected.hiddenSSID != actual.hiddenSSID) return "hiddenSSID";
+        if(expected.networkId != actual.networkId) return "networkId";
+        if(!equal(expected.preSharedKey, actual.preSharedKey)) return "preSharedKey";
+        if(expected.status != actual.status) return "status";
+        if(!Arrays.equals(expected.wepKeys, actual.wepKeys)) return "wepKeys";
+        if(expected.wepTxKeyIndex != actual.wepTxKeyIndex) return "wepTxKeyIndex";
+        if(!expected.allowedAuthAlgorithms.equals(actual.allowedAuthAlgorithms)) return "allowedAuthAlgorithms";
+        if(!expected.allowedGroupCiphers.equals(actual.allowedGroupCiphers)) return "allowedGroupCiphers";
+        if(!expected.allowedKeyManagement.equals(actual.allowedKeyManagement)) return "allowedKeyManagement";
+        if(!expected.allowedPairwiseCiphers.equals(actual.allowedPairwiseCiphers)) return "allowedPairwiseCiphers";
+        if(!expected.allowedProtocols.equals(actual.allowedProtocols)) return "allowedProtocols";
+
+        return null;
+    }
+
+    private static String compareNumber(String literal, String expected) throws JSONException {
+        String config = "{\"SSID\":" + literal + ",\"preSharedKey\":" + literal + ",\"wepKeys\":[" + literal + "]}";
+        WifiConfiguration actual = (WifiConfiguration) WifiConfigurationDecoder.readArgs("[" + config + "]").get(0);
+
+        if(!expected.equals(actual.SSID)) return "SSID";
+        if(!expected.equals(actual.preSharedKey)) return "preSharedKey";
+        if(!expected.equals(actual.wepKeys[0])) return "wepKeys";
+
+        return null;
+    }
+
+    private static JSONObject createConfiguration(Random random) throws JSONException {
+        JSONObject json = new JSONObject();
+
+        putMaybe(json, random, "BSSID", String.format("02:00:00:00:%02x:%02x", random.nextInt(256), random.nextInt(256)));
+        putMaybe(json, random, "SSID", "\"network-" + random.nextInt(1000) + "\"");
+        putMaybe(json, random, "hiddenSSID", random.nextBoolean());
+        putMaybe(json, random, "networkId", random.nextBoolean() ? (Object) random.nextInt(100) : String.valueOf(random.nextInt(100)));
+        putMaybe(json, random, "preSharedKey", "\"password-" + random.nextInt(1000) + "\"");
+        putMaybe(json, random, "status", STATUSES[random.nextInt(STATUSES.length)]);
+        putMaybe(json, random, "wepTxKeyIndex", random.nextInt(4));
+        putMaybe(json, random, "unknown", random.nextBoolean() ? new JSONObject().put("nested", 1) : new JSONArray().put("value"));
+
+        for(String[] flags : FLAGS) {
+            JSONObject values = new JSONObject();
+
+            for(int i = 1; i < flags.length; i++) putMaybe(values, random, flags[i], createFlag(random));
+            putMaybe(values, random, "UNKNOWN", true);
+
+            putMaybe(json, random, flags[0], values);
+        }
+
+        JSONArray wepKeys = new JSONArray();
+        int length = random.nextInt(7);
+
+        for(int i = 0; i < length; i++) {
+            wepKeys.put(random.nextInt(3) == 0 ? JSONObject.NULL : "\"key-" + random.nextInt(1000) + "\"");
+        }
+
+        putMaybe(json, random, "wepKeys", wepKeys);
+
+        return json;
+    }
+
+    private static Object createFlag(Random random) {
+        switch(random.nextInt(4)) {
+            case 0: return true;
+            case 1: return false;
+            case 2: return 1;
+            default: return "x";
+        }
+    }
+
+    /**
+     * Puts the value, null or nothing at all.
+     */
+    private static void putMaybe(JSONObject json, Random random, String name, Object value) throws JSONException {
+        switch(random.nextInt(4)) {
+            case 0: return;
+            case 1: json.put(name, JSONObject.NULL); return;
+            default: json.put(name, value);
+        }
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
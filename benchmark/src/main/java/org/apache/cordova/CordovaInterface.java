@@ -0,0 +1,15 @@
+package org.apache.cordova;
+
+import android.app.Activity;
+import android.content.Intent;
+
+import java.util.concurrent.ExecutorService;
+
+public interface CordovaInterface {
+    void startActivityForResult(CordovaPlugin command, Intent intent, int requestCode);
+    Activity getActivity();
+    ExecutorService getThreadPool();
+    void requestPermission(CordovaPlugin plugin, int requestCode, String permission);
+    void requestPermissions(CordovaPlugin plugin, int requestCode, String[] permissions);
+    boolean hasPermission(String permission);
+}
@@ -0,0 +1,167 @@
+package dk.kapetanovic.wifimanager;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs a list of actions one after the other through the regular handlers
+ * and answers with one array holding an entry per action, either
+ * { data } or { error }. Actions that answer later, e.g. after a permission
+ * prompt, resume the batch on the thread they answer on.
+ */
+class ActionBatch {
+    private final ActionDispatcher.Handler handler;
+    private final JSONArray entries;
+    private final boolean stopOnError;
+    private final CallbackContext callbackContext;
+    private final JSONArray results = new JSONArray();
+
+    private boolean running = false;
+    private boolean stopped = false;
+
+    ActionBatch(ActionDispatcher.Handler handler, JSONArray entries, boolean stopOnError,
+                CallbackContext callbackContext) {
+        this.handler = handler;
+        this.entries = entries;
+        this.stopOnError = stopOnError;
+        this.callbackContext = callbackContext;
+    }
+
+    void run() {
+        while(true) {
+            int index;
+
+            synchronized(this) {
+                if(stopped || results.length() >= entries.length()) break;
+                index = results.length();
+                running = true;
+            }
+
+            execute(index);
+
+            synchronized(this) {
+                running = false;
+                // Resumed from complete() once the answer arrives
+                if(results.length() == index) return;
+            }
+        }
+
+        callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, results));
+    }
+
+    private void execute(int index) {
+        EntryCallbackContext entryCallbackContext = new EntryCallbackContext(index);
+
+        try {
+            JSONObject entry = entries.getJSONObject(index);
+            String action = entry.getString("action");
+            JSONArray args = entry.optJSONArray("args");
+
+            if(!handler.handle(action, args == null ? new JSONArray() : args, entryCallbackContext)) {
+                entryCallbackContext.sendPluginResult(new PluginResult(PluginResult.Status.INVALID_ACTION));
+            }
+        } catch(JSONException e) {
+            entryCallbackContext.sendPluginResult(new PluginResult(PluginResult.Status.JSON_EXCEPTION, e.getMessage()));
+        } catch(RuntimeException e) {
+            entryCallbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, e.getMessage()));
+        }
+    }
+
+    private void complete(PluginResult result) {
+        JSONObject json = new JSONObject();
+
+        try {
+            boolean ok = result.getStatus() == PluginResult.Status.OK.ordinal();
+            Object value = toValue(result);
+
+            // Unwrap the { data } the handlers answer with
+            if(value instanceof JSONObject && ((JSONObject) value).has("data")) {
+                value = ((JSONObject) value).get("data");
+            }
+
+            json.put(ok ? "data" : "error", value);
+        } catch(JSONException e) {
+            try {
+                json.put("error", e.getMessage());
+            } catch(JSONException ignored) {
+                // Cannot happen for a non-null string
+            }
+        }
+
+        boolean resume;
+
+        synchronized(this) {
+            results.put(json);
+            if(stopOnError && json.has("error")) stopped = true;
+            resume = !running;
+        }
+
+        if(resume) run();
+    }
+
+    /**
+     * Runs an entry that was held back, e.g. for a permission, again on the
+     * executor and through the batch's handler. The batch waits for the
+     * entry's answer, so the entry keeps its place. Returns false if the
+     * callback does not belong to a batch entry.
+     */
+    static boolean replay(CallbackContext callbackContext, Executor executor) {
+        if(!(callbackContext instanceof EntryCallbackContext)) return false;
+
+        final EntryCallbackContext entry = (EntryCallbackContext) callbackContext;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                entry.replay();
+            }
+        });
+
+        return true;
+    }
+
+    private static Object toValue(PluginResult result) throws JSONException {
+        switch(result.getMessageType()) {
+            case PluginResult.MESSAGE_TYPE_STRING: return result.getStrMessage();
+            case PluginResult.MESSAGE_TYPE_NULL: return JSONObject.NULL;
+            case PluginResult.MESSAGE_TYPE_JSON:
+            case PluginResult.MESSAGE_TYPE_NUMBER:
+            case PluginResult.MESSAGE_TYPE_BOOLEAN: return new JSONTokener(result.getMessage()).nextValue();
+            default: throw new JSONException("Binary results are not supported in a batch");
+        }
+    }
+
+    private class EntryCallbackContext extends CallbackContext {
+        private final int index;
+        private boolean done = false;
+
+        EntryCallbackContext(int index) {
+            super(callbackContext.getCallbackId() + "#" + index, null);
+            this.index = index;
+        }
+
+        void replay() {
+            execute(index);
+        }
+
+        @Override
+        public boolean isFinished() {
+            return done;
+        }
+
+        @Override
+        public void sendPluginResult(PluginResult pluginResult) {
+            synchronized(this) {
+                if(done) return;
+                done = true;
+            }
+
+            complete(pluginResult);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package dk.kapetanovic.wifimanager;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Decides on which thread an action runs. Inline actions run directly on the
+ * bridge thread, pool actions on the shared Cordova thread pool and serial
+ * actions one at a time on a dedicated worker thread.
+ */
+class ActionDispatcher {
+    enum Policy {
+        INLINE,
+        POOL,
+        SERIAL;
+
+        static Policy fromString(String policy) {
+            try {
+                return Policy.valueOf(policy.trim().toUpperCase(Locale.US));
+            } catch(IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    interface Handler {
+        boolean handle(String action, JSONArray args, CallbackContext callbackContext) throws JSONException;
+    }
+
+    private final Handler handler;
+    private final ExecutorService pool;
+    private final ExecutorService serial;
+    private final Map<String, Policy> policies = new HashMap<String, Policy>();
+
+    ActionDispatcher(Handler handler, ExecutorService pool) {
+        this.handler = handler;
+        this.pool = pool;
+        this.serial = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "WifiManagerPlugin-serial");
+            }
+        });
+    }
+
+    void setPolicy(String action, Policy policy) {
+        policies.put(action, policy);
+    }
+
+    Policy getPolicy(String action) {
+        Policy policy = policies.get(action);
+        return policy == null ? Policy.INLINE : policy;
+    }
+
+    /**
+     * Applies overrides in the form "action:policy,action:policy", e.g.
+     * "saveConfiguration:pool,getScanResults:inline". Unknown policies are ignored.
+     */
+    void configure(String overrides) {
+        if(overrides == null) return;
+
+        for(String entry : overrides.split(",")) {
+            int separator = entry.indexOf(':');
+            if(separator < 0) continue;
+
+            String action = entry.substring(0, separator).trim();
+            Policy policy = Policy.fromString(entry.substring(separator + 1));
+            if(!action.isEmpty() && policy != null) policies.put(action, policy);
+        }
+    }
+
+    boolean dispatch(final String action, final JSONArray args, final CallbackContext callbackContext) throws JSONException {
+        Policy policy = getPolicy(action);
+        if(policy == Policy.INLINE) return handler.handle(action, args, callbackContext);
+
+        submit(policy, action, args, callbackContext);
+        return true;
+    }
+
+    /**
+     * Like dispatch, but inline actions run on the pool instead of the
+     * calling thread, e.g. for actions replayed from a permission result.
+     * Every error is answered on the callback.
+     */
+    void dispatchLater(String action, JSONArray args, CallbackContext callbackContext) {
+        submit(getPolicy(action), action, args, callbackContext);
+    }
+
+    void shutdown() {
+        serial.shutdown();
+    }
+
+    private void submit(Policy policy, final String action, final JSONArray args,
+                        final CallbackContext callbackContext) {
+        ExecutorService executor = policy == Policy.SERIAL ? serial : pool;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                dispatchNow(action, args, callbackContext);
+            }
+        });
+    }
+
+    private void dispatchNow(String action, JSONArray args, CallbackContext callbackContext) {
+        try {
+            if(!handler.handle(action, args, callbackContext)) {
+                callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.INVALID_ACTION));
+            }
+        } catch(JSONException e) {
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.JSON_EXCEPTION, getMessage(e)));
+        } catch(RuntimeException e) {
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, getMessage(e)));
+        }
+    }
+
+    private static String getMessage(Exception e) {
+        // E.g. a NullPointerException often has no message
+        return e.getMessage() == null ? e.toString() : e.getMessage();
+    }
+}
@@ -0,0 +1,122 @@
+package dk.kapetanovic.wifimanager;
+
+import android.net.DhcpInfo;
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiConfiguration;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+
+import java.util.List;
+
+/**
+ * Passes every call on to the platform WifiManager, broadcasts come from
+ * the system.
+ */
+class AndroidWifiBackend implements WifiBackend {
+    private final WifiManager wifiManager;
+
+    AndroidWifiBackend(WifiManager wifiManager) {
+        this.wifiManager = wifiManager;
+    }
+
+    @Override
+    public Object getHiddenApiTarget() {
+        return wifiManager;
+    }
+
+    @Override
+    public void start(BroadcastRegistration registration) {}
+
+    @Override
+    public void stop() {}
+
+    @Override
+    public int addNetwork(WifiConfiguration config) {
+        return wifiManager.addNetwork(config);
+    }
+
+    @Override
+    public boolean disableNetwork(int netId) {
+        return wifiManager.disableNetwork(netId);
+    }
+
+    @Override
+    public boolean disconnect() {
+        return wifiManager.disconnect();
+    }
+
+    @Override
+    public boolean enableNetwork(int netId, boolean attemptConnect) {
+        return wifiManager.enableNetwork(netId, attemptConnect);
+    }
+
+    @Override
+    public List<WifiConfiguration> getConfiguredNetworks() {
+        return wifiManager.getConfiguredNetworks();
+    }
+
+    @Override
+    public WifiInfo getConnectionInfo() {
+        return wifiManager.getConnectionInfo();
+    }
+
+    @Override
+    public DhcpInfo getDhcpInfo() {
+        return wifiManager.getDhcpInfo();
+    }
+
+    @Override
+    public List<ScanResult> getScanResults() {
+        return wifiManager.getScanResults();
+    }
+
+    @Override
+    public int getWifiState() {
+        return wifiManager.getWifiState();
+    }
+
+    @Override
+    public boolean isScanAlwaysAvailable() {
+        return wifiManager.isScanAlwaysAvailable();
+    }
+
+    @Override
+    public boolean isWifiEnabled() {
+        return wifiManager.isWifiEnabled();
+    }
+
+    @Override
+    public boolean reassociate() {
+        return wifiManager.reassociate();
+    }
+
+    @Override
+    public boolean reconnect() {
+        return wifiManager.reconnect();
+    }
+
+    @Override
+    public boolean removeNetwork(int netId) {
+        return wifiManager.removeNetwork(netId);
+    }
+
+    @Override
+    public boolean saveConfiguration() {
+        return wifiManager.saveConfiguration();
+    }
+
+    @Override
+    public boolean setWifiEnabled(boolean enabled) {
+        return wifiManager.setWifiEnabled(enabled);
+    }
+
+    @Override
+    public boolean startScan() {
+        return wifiManager.startScan();
+    }
+
+    @Override
+    public int updateNetwork(WifiConfiguration config) {
+        return wifiManager.updateNetwork(config);
+    }
+}
@@ -0,0 +1,205 @@
+package dk.kapetanovic.wifimanager;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the receiver registered for exactly the actions somebody needs,
+ * either because JavaScript subscribed to the event, a listener listens to
+ * it or the plugin depends on it internally. The receiver is re-registered
+ * whenever that set changes while active.
+ *
+ * Until the first subscribe or unsubscribe every known action is delivered.
+ *
+ * While inactive, the subscribed and listened to actions can be delivered to
+ * a background receiver instead. It is registered on the application
+ * context, which outlives the paused activity.
+ */
+class BroadcastRegistration {
+    private final Context context;
+    private final BroadcastReceiver receiver;
+    private final Handler handler;
+    private final Set<String> actions;
+    private final Map<String, Integer> required = new HashMap<String, Integer>();
+    private final Map<String, Integer> listened = new HashMap<String, Integer>();
+
+    private Set<String> subscribed;
+    private Set<String> registered = Collections.emptySet();
+    private boolean active = false;
+
+    private BroadcastReceiver backgroundReceiver;
+    private Set<String> backgroundRegistered = Collections.emptySet();
+
+    /**
+     * Broadcasts are delivered on the handler's thread, or on the main
+     * thread if the handler is null. Without a context nothing is registered
+     * with the system and only dispatched broadcasts are delivered.
+     */
+    BroadcastRegistration(Context context, BroadcastReceiver receiver, Handler handler,
+                          Collection<String> actions) {
+        this.context = context;
+        this.receiver = receiver;
+        this.handler = handler;
+        this.actions = new LinkedHashSet<String>(actions);
+    }
+
+    synchronized void setActive(boolean active) {
+        this.active = active;
+        update();
+    }
+
+    /**
+     * Null stops delivering broadcasts while inactive.
+     */
+    synchronized void setBackgroundReceiver(BroadcastReceiver backgroundReceiver) {
+        if(this.backgroundReceiver == backgroundReceiver) return;
+
+        if(this.backgroundReceiver != null) {
+            backgroundRegistered = register(this.backgroundReceiver, getBackgroundContext(),
+                    backgroundRegistered, Collections.<String>emptySet());
+        }
+
+        this.backgroundReceiver = backgroundReceiver;
+        update();
+    }
+
+    synchronized void require(String action) {
+        increment(required, action);
+        update();
+    }
+
+    synchronized void release(String action) {
+        decrement(required, action);
+        update();
+    }
+
+    /**
+     * Like require, but for event listeners. While inactive the receiver
+     * gets none of these actions. Like the subscribed ones, they go only to
+     * the background receiver, if one is set.
+     */
+    synchronized void listen(String action) {
+        increment(listened, action);
+        update();
+    }
+
+    synchronized void unlisten(String action) {
+        decrement(listened, action);
+        update();
+    }
+
+    synchronized void subscribe(Collection<String> actions) {
+        if(subscribed == null) return;
+
+        for(String action : actions) {
+            if(this.actions.contains(action)) subscribed.add(action);
+        }
+
+        update();
+    }
+
+    synchronized void unsubscribe(Collection<String> actions) {
+        if(subscribed == null) subscribed = new LinkedHashSet<String>(this.actions);
+
+        subscribed.removeAll(actions);
+        update();
+    }
+
+    synchronized boolean isSubscribed(String action) {
+        return subscribed == null ? actions.contains(action) : subscribed.contains(action);
+    }
+
+    synchronized Set<String> getRegistered() {
+        return Collections.unmodifiableSet(registered);
+    }
+
+    /**
+     * Delivers a broadcast that did not come from the system, on the same
+     * thread and under the same filter as a registered one would be.
+     */
+    void dispatch(final Intent intent) {
+        final BroadcastReceiver receiver;
+
+        synchronized(this) {
+            if(registered.contains(intent.getAction())) receiver = this.receiver;
+            else if(backgroundRegistered.contains(intent.getAction())) receiver = backgroundReceiver;
+            else return;
+        }
+
+        Handler target = handler == null ? new Handler(Looper.getMainLooper()) : handler;
+
+        target.post(new Runnable() {
+            @Override
+            public void run() {
+                receiver.onReceive(context, intent);
+            }
+        });
+    }
+
+    private void update() {
+        Set<String> wanted = new LinkedHashSet<String>();
+        Set<String> background = new LinkedHashSet<String>();
+
+        if(active) {
+            wanted.addAll(subscribed == null ? actions : subscribed);
+            wanted.addAll(required.keySet());
+            wanted.addAll(listened.keySet());
+        } else if(backgroundReceiver != null) {
+            background.addAll(subscribed == null ? actions : subscribed);
+            background.addAll(listened.keySet());
+        }
+
+        registered = register(receiver, context, registered, wanted);
+
+        if(backgroundReceiver != null) {
+            backgroundRegistered = register(backgroundReceiver, getBackgroundContext(), backgroundRegistered, background);
+        }
+    }
+
+    private static void increment(Map<String, Integer> counts, String action) {
+        Integer count = counts.get(action);
+        counts.put(action, count == null ? 1 : count + 1);
+    }
+
+    private static void decrement(Map<String, Integer> counts, String action) {
+        Integer count = counts.get(action);
+        if(count == null) return;
+
+        if(count <= 1) counts.remove(action);
+        else counts.put(action, count - 1);
+    }
+
+    private Context getBackgroundContext() {
+        return context == null ? null : context.getApplicationContext();
+    }
+
+    /**
+     * Registers the receiver for the wanted actions instead of the registered
+     * ones and returns the actions it is now registered for.
+     */
+    private Set<String> register(BroadcastReceiver receiver, Context context, Set<String> registered,
+                                 Set<String> wanted) {
+        if(wanted.equals(registered)) return registered;
+
+        if(context != null && !registered.isEmpty()) context.unregisterReceiver(receiver);
+
+        if(context != null && !wanted.isEmpty()) {
+            IntentFilter intentFilter = new IntentFilter();
+            for(String action : wanted) intentFilter.addAction(action);
+            context.registerReceiver(receiver, intentFilter, null, handler);
+        }
+
+        return wanted;
+    }
+}
@@ -0,0 +1,122 @@
+package dk.kapetanovic.wifimanager;
+
+import android.net.wifi.WifiConfiguration;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The configured networks keyed by network id and SSID, listed on first use
+ * after every invalidation. Like ScanResultsCache, every invalidation bumps
+ * the generation and a listing started before it is not kept.
+ *
+ * The returned configurations are shared and must not be modified.
+ *
+ * The index only needs to hear about changes while it holds a listing, the
+ * listener is told when that starts and stops.
+ */
+class ConfiguredNetworkIndex {
+    interface Listener {
+        /**
+         * Called with true before the first listing after an invalidation
+         * and with false on the next invalidation.
+         */
+        void onWatching(boolean watching);
+    }
+
+    private static class Snapshot {
+        final List<WifiConfiguration> networks;
+        final Map<Integer, WifiConfiguration> networkIds = new HashMap<Integer, WifiConfiguration>();
+        final Map<String, WifiConfiguration> ssids = new HashMap<String, WifiConfiguration>();
+
+        Snapshot(List<WifiConfiguration> networks) {
+            this.networks = networks == null ?
+                    Collections.<WifiConfiguration>emptyList() :
+                    Collections.unmodifiableList(networks);
+
+            for(WifiConfiguration network : this.networks) {
+                if(!networkIds.containsKey(network.networkId)) networkIds.put(network.networkId, network);
+
+                String ssid = unquote(network.SSID);
+                if(ssid != null && !ssids.containsKey(ssid)) ssids.put(ssid, network);
+            }
+
+            // Exact matches win over unquoted ones
+            for(WifiConfiguration network : this.networks) {
+                if(network.SSID == null) continue;
+
+                WifiConfiguration existing = ssids.get(network.SSID);
+                if(existing == null || !network.SSID.equals(existing.SSID)) ssids.put(network.SSID, network);
+            }
+        }
+    }
+
+    private final WifiBackend backend;
+    private final Listener listener;
+
+    private long generation = 0;
+    private Snapshot snapshot;
+    private boolean watching = false;
+
+    ConfiguredNetworkIndex(WifiBackend backend, Listener listener) {
+        this.backend = backend;
+        this.listener = listener;
+    }
+
+    List<WifiConfiguration> getNetworks() {
+        return getSnapshot().networks;
+    }
+
+    WifiConfiguration getNetwork(int networkId) {
+        return getSnapshot().networkIds.get(networkId);
+    }
+
+    /**
+     * Matches the SSID as given or without the quotes configured SSIDs
+     * usually have.
+     */
+    WifiConfiguration findNetwork(String ssid) {
+        return getSnapshot().ssids.get(ssid);
+    }
+
+    synchronized void invalidate() {
+        generation++;
+        snapshot = null;
+
+        if(watching) {
+            watching = false;
+            listener.onWatching(false);
+        }
+    }
+
+    private Snapshot getSnapshot() {
+        long generation;
+
+        synchronized(this) {
+            if(snapshot != null) return snapshot;
+            generation = this.generation;
+
+            // Before listing, so no change in between goes unnoticed
+            if(!watching) {
+                watching = true;
+                listener.onWatching(true);
+            }
+        }
+
+        // List outside the lock so invalidations never wait for the binder
+        Snapshot loaded = new Snapshot(backend.getConfiguredNetworks());
+
+        synchronized(this) {
+            if(generation == this.generation) snapshot = loaded;
+        }
+
+        return loaded;
+    }
+
+    private static String unquote(String ssid) {
+        if(ssid == null || ssid.length() < 2 || !ssid.startsWith("\"") || !ssid.endsWith("\"")) return null;
+        return ssid.substring(1, ssid.length() - 1);
+    }
+}
@@ -0,0 +1,117 @@
+package dk.kapetanovic.wifimanager;
+
+import android.net.wifi.WifiManager;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows one connection attempt at a time until the network is connected,
+ * authentication fails or the timeout expires. A new attempt cancels the
+ * previous one, the supplicant only connects to one network anyway.
+ */
+class ConnectionTracker {
+    static final String REASON_AUTHENTICATION = "AUTHENTICATION";
+    static final String REASON_CANCELED = "CANCELED";
+    static final String REASON_ENABLE_FAILED = "ENABLE_FAILED";
+    static final String REASON_TIMEOUT = "TIMEOUT";
+
+    interface Listener {
+        void onConnected(int networkId, long elapsed);
+        void onFailed(int networkId, String reason, long elapsed);
+    }
+
+    private class Attempt {
+        final int networkId;
+        final Listener listener;
+        final long start = System.nanoTime();
+        ScheduledFuture<?> timeout;
+
+        Attempt(int networkId, Listener listener) {
+            this.networkId = networkId;
+            this.listener = listener;
+        }
+
+        long getElapsed() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+    }
+
+    private final BroadcastRegistration registration;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile Attempt attempt;
+
+    ConnectionTracker(BroadcastRegistration registration, ScheduledExecutorService scheduler) {
+        this.registration = registration;
+        this.scheduler = scheduler;
+    }
+
+    void track(int networkId, long timeout, Listener listener) {
+        final Attempt next = new Attempt(networkId, listener);
+        Attempt previous;
+
+        synchronized(this) {
+            previous = attempt;
+            attempt = next;
+
+            if(previous == null) {
+                registration.require(WifiManager.NETWORK_STATE_CHANGED_ACTION);
+                registration.require(WifiManager.SUPPLICANT_STATE_CHANGED_ACTION);
+            } else if(previous.timeout != null) {
+                previous.timeout.cancel(false);
+            }
+
+            next.timeout = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if(finish(next)) next.listener.onFailed(next.networkId, REASON_TIMEOUT, next.getElapsed());
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        }
+
+        if(previous != null) previous.listener.onFailed(previous.networkId, REASON_CANCELED, previous.getElapsed());
+    }
+
+    /**
+     * Lets the receiver skip looking up the network id when nobody waits.
+     */
+    boolean isTracking() {
+        return attempt != null;
+    }
+
+    void onConnected(int networkId) {
+        Attempt current = attempt;
+        if(current == null || current.networkId != networkId || !finish(current)) return;
+
+        current.listener.onConnected(networkId, current.getElapsed());
+    }
+
+    void onFailed(int networkId, String reason) {
+        Attempt current = attempt;
+        if(current == null || current.networkId != networkId || !finish(current)) return;
+
+        current.listener.onFailed(networkId, reason, current.getElapsed());
+    }
+
+    /**
+     * Authentication errors do not name the network, they are blamed on the
+     * attempt in progress.
+     */
+    void onAuthenticationError() {
+        Attempt current = attempt;
+        if(current != null) onFailed(current.networkId, REASON_AUTHENTICATION);
+    }
+
+    private synchronized boolean finish(Attempt finished) {
+        if(attempt != finished) return false;
+
+        attempt = null;
+        if(finished.timeout != null) finished.timeout.cancel(false);
+        registration.release(WifiManager.NETWORK_STATE_CHANGED_ACTION);
+        registration.release(WifiManager.SUPPLICANT_STATE_CHANGED_ACTION);
+
+        return true;
+    }
+}
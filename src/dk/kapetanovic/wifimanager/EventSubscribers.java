@@ -0,0 +1,91 @@
+package dk.kapetanovic.wifimanager;
+
+import org.apache.cordova.CallbackContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The event listeners added from JavaScript, each with its own callback,
+ * events and throttle. The list is copied on every change, which is rare,
+ * so the receiver can look up the listeners of every broadcast without
+ * locking.
+ */
+class EventSubscribers {
+    static class Subscriber {
+        final String id;
+        final CallbackContext callbackContext;
+        // Normalized event names, null for every event
+        final Set<String> events;
+        // Null if not throttled
+        final EventThrottle throttle;
+
+        Subscriber(String id, CallbackContext callbackContext, Set<String> events, EventThrottle throttle) {
+            this.id = id;
+            this.callbackContext = callbackContext;
+            this.events = events;
+            this.throttle = throttle;
+        }
+
+        boolean accepts(String event) {
+            return events == null || events.contains(event);
+        }
+    }
+
+    private volatile List<Subscriber> subscribers = Collections.emptyList();
+
+    /**
+     * Returns the subscriber with the same id that was replaced, or null.
+     */
+    synchronized Subscriber add(Subscriber subscriber) {
+        List<Subscriber> next = new ArrayList<Subscriber>(subscribers.size() + 1);
+        Subscriber replaced = null;
+
+        for(Subscriber existing : subscribers) {
+            if(existing.id.equals(subscriber.id)) replaced = existing;
+            else next.add(existing);
+        }
+
+        next.add(subscriber);
+        subscribers = Collections.unmodifiableList(next);
+
+        return replaced;
+    }
+
+    synchronized Subscriber remove(String id) {
+        List<Subscriber> next = new ArrayList<Subscriber>(subscribers);
+        Subscriber removed = null;
+
+        for(int i = 0; i < next.size(); i++) {
+            if(next.get(i).id.equals(id)) {
+                removed = next.remove(i);
+                break;
+            }
+        }
+
+        if(removed != null) subscribers = Collections.unmodifiableList(next);
+        return removed;
+    }
+
+    /**
+     * The subscribers of the event, empty if there are none.
+     */
+    List<Subscriber> get(String event) {
+        List<Subscriber> subscribers = this.subscribers;
+        if(subscribers.isEmpty() || event == null) return Collections.emptyList();
+
+        String normalized = WifiEvents.normalize(event);
+        List<Subscriber> matching = null;
+
+        for(Subscriber subscriber : subscribers) {
+            if(!subscriber.accepts(normalized)) continue;
+
+            if(matching == null) matching = new ArrayList<Subscriber>(subscribers.size());
+            matching.add(subscriber);
+        }
+
+        return matching == null ? Collections.<Subscriber>emptyList() : matching;
+    }
+}
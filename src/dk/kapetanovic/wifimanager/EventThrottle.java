@@ -0,0 +1,180 @@
+package dk.kapetanovic.wifimanager;
+
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per event type throttle and debounce windows. With throttling the first
+ * event is sent right away and the events arriving within the following
+ * interval are sent together when it ends. With debouncing events are held
+ * back until no new event arrived for the interval. Events held back are
+ * delivered as a single batch result.
+ */
+class EventThrottle {
+    static final String EVENT_BATCH = "BATCH";
+
+    interface Sink {
+        void send(PluginResult result);
+    }
+
+    private final Sink sink;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Window> windows = new HashMap<String, Window>();
+
+    EventThrottle(Sink sink, ScheduledExecutorService scheduler) {
+        this.sink = sink;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Replaces the windows with the given configuration, keyed by event name,
+     * e.g. { RSSI_CHANGED: { interval: 500, latest: true } }. Events that
+     * are held back by the previous configuration are sent first.
+     */
+    void configure(JSONObject config) {
+        List<JSONObject> events;
+
+        synchronized(this) {
+            events = drain();
+            windows.clear();
+
+            if(config != null) {
+                Iterator<String> keys = config.keys();
+
+                while(keys.hasNext()) {
+                    String key = keys.next();
+                    JSONObject options = config.optJSONObject(key);
+                    long interval = options == null ? 0 : options.optLong("interval", 0);
+                    if(interval <= 0) continue;
+
+                    windows.put(WifiEvents.normalize(key), new Window(WifiEvents.normalize(key), interval,
+                            options.optBoolean("latest", false),
+                            options.optBoolean("debounce", false)));
+                }
+            }
+        }
+
+        send(events);
+    }
+
+    /**
+     * Returns true if the event was held back, false if the caller should
+     * send it right away.
+     */
+    synchronized boolean offer(String event, JSONObject json) {
+        if(event == null) return false;
+
+        Window window = windows.get(WifiEvents.normalize(event));
+        if(window == null) return false;
+
+        if(window.debounce) {
+            window.add(json);
+            if(window.flush != null) window.flush.cancel(false);
+            window.flush = schedule(window);
+            return true;
+        }
+
+        if(window.flush == null) {
+            window.flush = schedule(window);
+            return false;
+        }
+
+        window.add(json);
+        return true;
+    }
+
+    static PluginResult toPluginResult(List<JSONObject> events) throws JSONException {
+        if(events.size() == 1) return new PluginResult(PluginResult.Status.OK, events.get(0));
+
+        JSONObject json = new JSONObject();
+        json.put("event", EVENT_BATCH);
+        json.put("data", new JSONArray(events));
+
+        return new PluginResult(PluginResult.Status.OK, json);
+    }
+
+    private ScheduledFuture<?> schedule(final Window window) {
+        return scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush(window);
+            }
+        }, window.interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush(Window window) {
+        List<JSONObject> events;
+
+        synchronized(this) {
+            // The window was replaced by a new configuration
+            if(windows.get(window.event) != window) return;
+
+            events = new ArrayList<JSONObject>(window.pending);
+            window.pending.clear();
+
+            // Keep throttling as long as events keep arriving
+            window.flush = !window.debounce && !events.isEmpty() ? schedule(window) : null;
+        }
+
+        send(events);
+    }
+
+    private List<JSONObject> drain() {
+        List<JSONObject> events = new ArrayList<JSONObject>();
+
+        for(Window window : windows.values()) {
+            if(window.flush != null) window.flush.cancel(false);
+            window.flush = null;
+            events.addAll(window.pending);
+            window.pending.clear();
+        }
+
+        return events;
+    }
+
+    private void send(List<JSONObject> events) {
+        if(events.isEmpty()) return;
+
+        PluginResult result;
+
+        try {
+            result = toPluginResult(events);
+        } catch(JSONException e) {
+            result = new PluginResult(PluginResult.Status.JSON_EXCEPTION, e.getMessage());
+        }
+
+        sink.send(result);
+    }
+
+    private static class Window {
+        private final String event;
+        private final long interval;
+        private final boolean latest;
+        private final boolean debounce;
+        private final List<JSONObject> pending = new ArrayList<JSONObject>();
+        private ScheduledFuture<?> flush;
+
+        Window(String event, long interval, boolean latest, boolean debounce) {
+            this.event = event;
+            this.interval = interval;
+            this.latest = latest;
+            this.debounce = debounce;
+        }
+
+        void add(JSONObject json) {
+            if(latest) pending.clear();
+            pending.add(json);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package dk.kapetanovic.wifimanager;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The properties a caller asked for with the fields option. Serializers
+ * check every property before building it, so nested objects nobody asked
+ * for are never allocated.
+ */
+class FieldProjection {
+    static final FieldProjection ALL = new FieldProjection(null);
+
+    private final Set<String> fields;
+
+    private FieldProjection(Set<String> fields) {
+        this.fields = fields;
+    }
+
+    static FieldProjection fromOptions(JSONObject options) throws JSONException {
+        JSONArray fields = options == null ? null : options.optJSONArray("fields");
+        if(fields == null) return ALL;
+
+        Set<String> set = new TreeSet<String>();
+        for(int i = 0; i < fields.length(); i++) set.add(fields.getString(i));
+
+        return new FieldProjection(set);
+    }
+
+    boolean includes(String field) {
+        return fields == null || fields.contains(field);
+    }
+
+    /**
+     * Identifies the projection in cache keys, equal for the same fields
+     * regardless of order.
+     */
+    String getKey() {
+        if(fields == null) return "*";
+
+        StringBuilder key = new StringBuilder();
+
+        for(String field : fields) {
+            if(key.length() > 0) key.append(',');
+            key.append(field);
+        }
+
+        return key.toString();
+    }
+}
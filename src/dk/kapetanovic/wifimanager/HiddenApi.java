@@ -0,0 +1,125 @@
+package dk.kapetanovic.wifimanager;
+
+import android.net.wifi.WifiConfiguration;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Registry of the undocumented WifiManager methods and constants. Handles are
+ * looked up the first time they are needed and cached afterwards, including
+ * the lookups that failed.
+ */
+class HiddenApi {
+    static final String GET_WIFI_AP_CONFIGURATION = "getWifiApConfiguration";
+    static final String GET_WIFI_AP_STATE = "getWifiApState";
+    static final String IS_WIFI_AP_ENABLED = "isWifiApEnabled";
+    static final String SET_WIFI_AP_CONFIGURATION = "setWifiApConfiguration";
+    static final String SET_WIFI_AP_ENABLED = "setWifiApEnabled";
+
+    static final String WIFI_AP_STATE_CHANGED_ACTION = "WIFI_AP_STATE_CHANGED_ACTION";
+    static final String EXTRA_WIFI_AP_STATE = "EXTRA_WIFI_AP_STATE";
+    static final String EXTRA_PREVIOUS_WIFI_AP_STATE = "EXTRA_PREVIOUS_WIFI_AP_STATE";
+
+    static final String WIFI_AP_STATE_DISABLED = "WIFI_AP_STATE_DISABLED";
+    static final String WIFI_AP_STATE_DISABLING = "WIFI_AP_STATE_DISABLING";
+    static final String WIFI_AP_STATE_ENABLED = "WIFI_AP_STATE_ENABLED";
+    static final String WIFI_AP_STATE_ENABLING = "WIFI_AP_STATE_ENABLING";
+    static final String WIFI_AP_STATE_FAILED = "WIFI_AP_STATE_FAILED";
+
+    private static final Map<String, Class<?>[]> SIGNATURES = new LinkedHashMap<String, Class<?>[]>();
+
+    static {
+        SIGNATURES.put(GET_WIFI_AP_CONFIGURATION, new Class<?>[] {});
+        SIGNATURES.put(GET_WIFI_AP_STATE, new Class<?>[] {});
+        SIGNATURES.put(IS_WIFI_AP_ENABLED, new Class<?>[] {});
+        SIGNATURES.put(SET_WIFI_AP_CONFIGURATION, new Class<?>[] { WifiConfiguration.class });
+        SIGNATURES.put(SET_WIFI_AP_ENABLED, new Class<?>[] { WifiConfiguration.class, boolean.class });
+    }
+
+    private final Class<?> klass;
+    private final Map<String, Method> methods = new HashMap<String, Method>();
+    private final Map<String, Object> fields = new HashMap<String, Object>();
+
+    HiddenApi(Class<?> klass) {
+        this.klass = klass;
+    }
+
+    synchronized Method getMethod(String name) throws NoSuchMethodException {
+        if(!methods.containsKey(name)) {
+            Method method = null;
+
+            try {
+                method = klass.getDeclaredMethod(name, SIGNATURES.get(name));
+            } catch(NoSuchMethodException e) {
+                // Cache the miss as well
+            }
+
+            methods.put(name, method);
+        }
+
+        Method method = methods.get(name);
+        if(method == null) throw new NoSuchMethodException(name);
+        return method;
+    }
+
+    boolean hasMethod(String name) {
+        try {
+            getMethod(name);
+            return true;
+        } catch(NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    String getStringField(String name) {
+        Object value = getField(name);
+        return value instanceof String ? (String) value : null;
+    }
+
+    int getIntField(String name) {
+        Object value = getField(name);
+        return value instanceof Integer ? (Integer) value : -1;
+    }
+
+    JSONObject getCapabilities() throws JSONException {
+        JSONObject json = new JSONObject();
+
+        for(String name : SIGNATURES.keySet()) {
+            json.put(name, hasMethod(name));
+        }
+
+        json.put("wifiApStateChangedAction", getStringField(WIFI_AP_STATE_CHANGED_ACTION) != null);
+
+        return json;
+    }
+
+    private synchronized Object getField(String name) {
+        if(!fields.containsKey(name)) {
+            fields.put(name, readStaticField(name));
+        }
+
+        return fields.get(name);
+    }
+
+    private Object readStaticField(String name) {
+        try {
+            Field field = klass.getDeclaredField(name);
+            if(!Modifier.isStatic(field.getModifiers())) return null;
+            if(field.getType().isAssignableFrom(Integer.TYPE)) return field.getInt(null);
+            if(field.getType().isAssignableFrom(String.class)) return field.get(null);
+            return null;
+        } catch(NoSuchFieldException e) {
+            return null;
+        } catch(IllegalAccessException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package dk.kapetanovic.wifimanager;
+
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.os.SystemClock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the latest link samples in fixed size ring buffers of primitives,
+ * so sampling does not allocate. Samples come from RSSI_CHANGED broadcasts,
+ * which only carry the RSSI, and optionally from reading the WifiInfo
+ * periodically. Values a sample does not have are stored as MISSING.
+ *
+ * Like the periodic scans, the WifiInfo is not read while inactive.
+ */
+class LinkSampler {
+    private static final int MISSING = Integer.MIN_VALUE;
+
+    private final WifiBackend backend;
+    private final BroadcastRegistration registration;
+    private final ScheduledExecutorService scheduler;
+
+    private final long[] times;
+    private final int[] rssis;
+    private final int[] linkSpeeds;
+    private final int[] frequencies;
+    private int count = 0;
+    private int next = 0;
+
+    private boolean sampling = false;
+    private boolean active = true;
+    private long interval = 0;
+    private ScheduledFuture<?> periodic;
+
+    LinkSampler(WifiBackend backend, BroadcastRegistration registration, ScheduledExecutorService scheduler,
+                int capacity) {
+        this.backend = backend;
+        this.registration = registration;
+        this.scheduler = scheduler;
+        this.times = new long[capacity];
+        this.rssis = new int[capacity];
+        this.linkSpeeds = new int[capacity];
+        this.frequencies = new int[capacity];
+    }
+
+    /**
+     * Samples every RSSI change and, with an interval above 0, reads the
+     * WifiInfo that often.
+     */
+    synchronized void start(long interval) {
+        if(!sampling) registration.require(WifiManager.RSSI_CHANGED_ACTION);
+        sampling = true;
+        this.interval = interval;
+
+        cancelPeriodic();
+        if(active) schedulePeriodic();
+    }
+
+    synchronized void stop() {
+        if(sampling) registration.release(WifiManager.RSSI_CHANGED_ACTION);
+        sampling = false;
+        interval = 0;
+
+        cancelPeriodic();
+    }
+
+    synchronized void setActive(boolean active) {
+        if(this.active == active) return;
+        this.active = active;
+
+        if(active) schedulePeriodic();
+        else cancelPeriodic();
+    }
+
+    synchronized boolean isSampling() {
+        return sampling;
+    }
+
+    void onRssiChanged(int rssi) {
+        add(SystemClock.elapsedRealtime(), rssi, MISSING, MISSING);
+    }
+
+    synchronized void clear() {
+        count = 0;
+        next = 0;
+    }
+
+    /**
+     * Summarizes the samples taken within the last window milliseconds, or
+     * all of them if the window is 0.
+     */
+    JSONObject getStats(long window) throws JSONException {
+        long now = SystemClock.elapsedRealtime();
+        int[] rssi;
+        int[] linkSpeed;
+        int[] frequency;
+        int samples = 0;
+        int rssiCount = 0;
+        int linkSpeedCount = 0;
+        int frequencyCount = 0;
+
+        synchronized(this) {
+            rssi = new int[count];
+            linkSpeed = new int[count];
+            frequency = new int[count];
+
+            // Newest first, stop at the first sample outside the window
+            for(int i = 0; i < count; i++) {
+                int index = (next - 1 - i + times.length) % times.length;
+                if(window > 0 && now - times[index] > window) break;
+
+                samples++;
+                if(rssis[index] != MISSING) rssi[rssiCount++] = rssis[index];
+                if(linkSpeeds[index] != MISSING) linkSpeed[linkSpeedCount++] = linkSpeeds[index];
+                if(frequencies[index] != MISSING) frequency[frequencyCount++] = frequencies[index];
+            }
+        }
+
+        JSONObject json = new JSONObject();
+        json.put("samples", samples);
+        json.put("rssi", summarize(rssi, rssiCount));
+        json.put("linkSpeed", summarize(linkSpeed, linkSpeedCount));
+        json.put("frequency", summarize(frequency, frequencyCount));
+
+        return json;
+    }
+
+    private void schedulePeriodic() {
+        if(!sampling || interval <= 0) return;
+
+        periodic = scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                sample();
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelPeriodic() {
+        if(periodic != null) periodic.cancel(false);
+        periodic = null;
+    }
+
+    private void sample() {
+        WifiInfo wifiInfo = backend.getConnectionInfo();
+        if(wifiInfo == null || wifiInfo.getNetworkId() == -1) return;
+
+        add(SystemClock.elapsedRealtime(), wifiInfo.getRssi(), wifiInfo.getLinkSpeed(), wifiInfo.getFrequency());
+    }
+
+    private synchronized void add(long time, int rssi, int linkSpeed, int frequency) {
+        times[next] = time;
+        rssis[next] = rssi;
+        linkSpeeds[next] = linkSpeed;
+        frequencies[next] = frequency;
+
+        next = (next + 1) % times.length;
+        count = Math.min(count + 1, times.length);
+    }
+
+    private static JSONObject summarize(int[] values, int count) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("count", count);
+
+        if(count == 0) {
+            json.put("min", JSONObject.NULL);
+            json.put("max", JSONObject.NULL);
+            json.put("mean", JSONObject.NULL);
+            json.put("p50", JSONObject.NULL);
+            json.put("p95", JSONObject.NULL);
+            return json;
+        }
+
+        Arrays.sort(values, 0, count);
+        long sum = 0;
+        for(int i = 0; i < count; i++) sum += values[i];
+
+        json.put("min", values[0]);
+        json.put("max", values[count - 1]);
+        json.put("mean", (double) sum / count);
+        json.put("p50", percentile(values, count, 50));
+        json.put("p95", percentile(values, count, 95));
+
+        return json;
+    }
+
+    // Nearest rank on sorted values
+    private static int percentile(int[] values, int count, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * count);
+        return values[Math.max(0, rank - 1)];
+    }
+}
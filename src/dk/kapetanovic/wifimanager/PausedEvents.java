@@ -0,0 +1,82 @@
+package dk.kapetanovic.wifimanager;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Receives the subscribed broadcasts while the app is paused and keeps only
+ * the latest one of each action, since every event describes the current
+ * state and later ones replace earlier ones. On resume they are summarized
+ * in a single event instead of replaying everything that was missed.
+ */
+class PausedEvents extends BroadcastReceiver {
+    static final String EVENT_RESUMED = "RESUMED";
+
+    interface Encoder {
+        Object encode(Intent intent) throws JSONException;
+    }
+
+    private final WifiEvents wifiEvents;
+    private final Map<String, Intent> latest = new HashMap<String, Intent>();
+    private final Map<String, Integer> counts = new HashMap<String, Integer>();
+    private long pausedAt = -1;
+
+    PausedEvents(WifiEvents wifiEvents) {
+        this.wifiEvents = wifiEvents;
+    }
+
+    @Override
+    public synchronized void onReceive(Context context, Intent intent) {
+        if(pausedAt < 0) return;
+
+        String action = intent.getAction();
+        Integer count = counts.get(action);
+        latest.put(action, intent);
+        counts.put(action, count == null ? 1 : count + 1);
+    }
+
+    synchronized void pause() {
+        latest.clear();
+        counts.clear();
+        pausedAt = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Returns { paused, events } where paused is how long the app was paused
+     * in milliseconds and events has { count, data } for every event that
+     * happened, keyed by event name, or null if not paused.
+     */
+    synchronized JSONObject resume(Encoder encoder) throws JSONException {
+        if(pausedAt < 0) return null;
+
+        JSONObject events = new JSONObject();
+
+        for(Map.Entry<String, Intent> entry : latest.entrySet()) {
+            String event = wifiEvents.getEvent(entry.getKey());
+            if(event == null) continue;
+
+            JSONObject json = new JSONObject();
+            json.put("count", counts.get(entry.getKey()));
+            json.put("data", encoder.encode(entry.getValue()));
+            events.put(event, json);
+        }
+
+        JSONObject json = new JSONObject();
+        json.put("paused", SystemClock.elapsedRealtime() - pausedAt);
+        json.put("events", events);
+
+        latest.clear();
+        counts.clear();
+        pausedAt = -1;
+
+        return json;
+    }
+}
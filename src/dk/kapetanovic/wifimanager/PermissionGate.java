@@ -0,0 +1,138 @@
+package dk.kapetanovic.wifimanager;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches whether each permission is granted, so actions only read a flag,
+ * and holds the actions waiting for a permission until the request for it
+ * completes. Only the first waiting action requests the permission.
+ *
+ * Grants are checked again on refresh, e.g. on resume, since some
+ * permissions can be changed in the settings without restarting the app.
+ */
+class PermissionGate {
+    interface Permission {
+        boolean check();
+        void request();
+    }
+
+    interface Listener {
+        /**
+         * Runs the action again now that the permission was granted. Called
+         * on the thread that delivered the permission result.
+         */
+        void onGranted(String action, JSONArray args, CallbackContext callbackContext) throws JSONException;
+        void onDenied(String permission, CallbackContext callbackContext) throws JSONException;
+    }
+
+    private static class Pending {
+        final String action;
+        final JSONArray args;
+        final CallbackContext callbackContext;
+
+        Pending(String action, JSONArray args, CallbackContext callbackContext) {
+            this.action = action;
+            this.args = args;
+            this.callbackContext = callbackContext;
+        }
+    }
+
+    private final Listener listener;
+    private final Map<String, Permission> permissions = new HashMap<String, Permission>();
+    private final Map<String, Boolean> granted = new ConcurrentHashMap<String, Boolean>();
+    private final Map<String, List<Pending>> pending = new HashMap<String, List<Pending>>();
+
+    PermissionGate(Listener listener) {
+        this.listener = listener;
+    }
+
+    synchronized void add(String name, Permission permission) {
+        permissions.put(name, permission);
+        granted.put(name, permission.check());
+    }
+
+    boolean isGranted(String name) {
+        return Boolean.TRUE.equals(granted.get(name));
+    }
+
+    /**
+     * Returns true if the permission is granted. Otherwise the action is held
+     * back until the permission is granted or denied and false is returned.
+     */
+    boolean require(String name, String action, JSONArray args, CallbackContext callbackContext) {
+        // We should end up here most of the time
+        if(isGranted(name)) return true;
+
+        Permission permission;
+
+        synchronized(this) {
+            permission = permissions.get(name);
+
+            // Granted in the meantime, e.g. in the settings
+            if(permission.check()) {
+                granted.put(name, true);
+                return true;
+            }
+
+            List<Pending> waiting = pending.get(name);
+
+            if(waiting != null) {
+                waiting.add(new Pending(action, args, callbackContext));
+                return false;
+            }
+
+            waiting = new ArrayList<Pending>();
+            waiting.add(new Pending(action, args, callbackContext));
+            pending.put(name, waiting);
+        }
+
+        permission.request();
+        return false;
+    }
+
+    synchronized void refresh() {
+        for(Map.Entry<String, Permission> entry : permissions.entrySet()) {
+            granted.put(entry.getKey(), entry.getValue().check());
+        }
+    }
+
+    /**
+     * Checks the permission again once a request for it completed and
+     * releases the actions waiting for it.
+     */
+    void onRequestCompleted(String name) {
+        boolean isGranted;
+        List<Pending> waiting;
+
+        synchronized(this) {
+            isGranted = permissions.get(name).check();
+            granted.put(name, isGranted);
+            waiting = pending.remove(name);
+        }
+
+        if(waiting == null) return;
+
+        for(Pending entry : waiting) {
+            try {
+                if(isGranted) listener.onGranted(entry.action, entry.args, entry.callbackContext);
+                else listener.onDenied(name, entry.callbackContext);
+            } catch(JSONException e) {
+                PluginResult result = new PluginResult(PluginResult.Status.JSON_EXCEPTION, e.getMessage());
+                entry.callbackContext.sendPluginResult(result);
+            } catch(RuntimeException e) {
+                // Runs on whichever thread delivered the permission result
+                String message = e.getMessage() == null ? e.toString() : e.getMessage();
+                entry.callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+            }
+        }
+    }
+}
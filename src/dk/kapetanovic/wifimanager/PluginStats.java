@@ -0,0 +1,295 @@
+package dk.kapetanovic.wifimanager;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Call counts, error counts, latency histograms and payload sizes per action
+ * and per broadcast event. Recording only touches atomic counters, a metric
+ * object is allocated the first time a name is seen.
+ *
+ * Action latency is further split into the time spent in the backend, the
+ * time spent building the result and the time spent handing it to the
+ * bridge, for results sent on the thread the action runs on.
+ */
+class PluginStats {
+    // Upper bounds of the latency buckets in microseconds, the last bucket
+    // counts everything above the largest bound
+    private static final long[] LATENCY_BUCKETS = {
+            100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 1000000
+    };
+
+    private final ConcurrentHashMap<String, Metric> actions = new ConcurrentHashMap<String, Metric>();
+    private final ConcurrentHashMap<String, Metric> events = new ConcurrentHashMap<String, Metric>();
+    private final ConcurrentHashMap<String, Metric> receivers = new ConcurrentHashMap<String, Metric>();
+    private final AtomicLong since = new AtomicLong(System.currentTimeMillis());
+    private final ThreadLocal<ActionPhases> phases = new ThreadLocal<ActionPhases>() {
+        @Override
+        protected ActionPhases initialValue() {
+            return new ActionPhases();
+        }
+    };
+
+    /**
+     * Marks the calling thread as running an action until endAction, so
+     * backend calls and results sent from it are attributed to its phases.
+     */
+    void beginAction() {
+        ActionPhases actionPhases = phases.get();
+
+        // A batch runs its actions inside its own
+        if(actionPhases.depth++ == 0) {
+            actionPhases.mark = System.nanoTime();
+            actionPhases.backendNanos = 0;
+        }
+    }
+
+    void endAction() {
+        phases.get().depth--;
+    }
+
+    /**
+     * Time spent in a backend call, ignored unless the calling thread runs
+     * an action.
+     */
+    void recordBackend(long nanos) {
+        ActionPhases actionPhases = phases.get();
+        if(actionPhases.depth > 0) actionPhases.backendNanos += nanos;
+    }
+
+    void recordAction(String action, long nanos, PluginResult result) {
+        getMetric(actions, action).record(nanos, result);
+    }
+
+    void recordEvent(String event, long nanos, PluginResult result) {
+        getMetric(events, event).record(nanos, result);
+    }
+
+    /**
+     * Time spent in the broadcast receiver, keyed by the thread it ran on.
+     */
+    void recordReceiver(String thread, long nanos) {
+        getMetric(receivers, thread).record(nanos, null);
+    }
+
+    CallbackContext instrument(String action, CallbackContext callbackContext, CordovaWebView webView) {
+        return new ActionCallbackContext(action, callbackContext, webView);
+    }
+
+    JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("since", since.get());
+
+        JSONArray buckets = new JSONArray();
+        for(long bound : LATENCY_BUCKETS) buckets.put(bound);
+        json.put("latencyBuckets", buckets);
+
+        json.put("actions", toJSON(actions));
+        json.put("events", toJSON(events));
+        json.put("receiver", toJSON(receivers));
+
+        return json;
+    }
+
+    void reset() {
+        for(Metric metric : actions.values()) metric.reset();
+        for(Metric metric : events.values()) metric.reset();
+        for(Metric metric : receivers.values()) metric.reset();
+        since.set(System.currentTimeMillis());
+    }
+
+    private static JSONObject toJSON(Map<String, Metric> metrics) throws JSONException {
+        JSONObject json = new JSONObject();
+
+        for(Map.Entry<String, Metric> entry : metrics.entrySet()) {
+            json.put(entry.getKey(), entry.getValue().toJSON());
+        }
+
+        return json;
+    }
+
+    private static Metric getMetric(ConcurrentHashMap<String, Metric> metrics, String name) {
+        Metric metric = metrics.get(name);
+
+        if(metric == null) {
+            metric = new Metric();
+            Metric existing = metrics.putIfAbsent(name, metric);
+            if(existing != null) metric = existing;
+        }
+
+        return metric;
+    }
+
+    private static class ActionPhases {
+        int depth;
+        // Start of the phases not recorded yet
+        long mark;
+        long backendNanos;
+    }
+
+    private static class Metric {
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong payloads = new AtomicLong();
+        private final AtomicLong totalBytes = new AtomicLong();
+        private final AtomicLong maxBytes = new AtomicLong();
+        private final AtomicLongArray latency = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+        private final AtomicLong phaseSamples = new AtomicLong();
+        private final AtomicLong backendNanos = new AtomicLong();
+        private final AtomicLong encodeNanos = new AtomicLong();
+        private final AtomicLong sendNanos = new AtomicLong();
+
+        void record(long nanos, PluginResult result) {
+            calls.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            updateMax(maxNanos, nanos);
+            latency.incrementAndGet(bucket(nanos / 1000));
+
+            // A null result was not sent yet, e.g. a throttled event, and is
+            // not an error
+            if(result != null && isError(result)) errors.incrementAndGet();
+            recordPayload(result);
+        }
+
+        void recordPhases(long backend, long encode, long send) {
+            phaseSamples.incrementAndGet();
+            backendNanos.addAndGet(backend);
+            encodeNanos.addAndGet(encode);
+            sendNanos.addAndGet(send);
+        }
+
+        void recordPayload(PluginResult result) {
+            if(result == null) return;
+
+            String message = result.getMessage();
+            int bytes = message == null ? 0 : message.length();
+
+            payloads.incrementAndGet();
+            totalBytes.addAndGet(bytes);
+            updateMax(maxBytes, bytes);
+        }
+
+        void reset() {
+            calls.set(0);
+            errors.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+            payloads.set(0);
+            totalBytes.set(0);
+            maxBytes.set(0);
+            for(int i = 0; i < latency.length(); i++) latency.set(i, 0);
+            phaseSamples.set(0);
+            backendNanos.set(0);
+            encodeNanos.set(0);
+            sendNanos.set(0);
+        }
+
+        JSONObject toJSON() throws JSONException {
+            long count = calls.get();
+            long payloadCount = payloads.get();
+
+            JSONObject json = new JSONObject();
+            json.put("calls", count);
+            json.put("errors", errors.get());
+            json.put("meanMicros", count == 0 ? 0 : totalNanos.get() / count / 1000);
+            json.put("maxMicros", maxNanos.get() / 1000);
+
+            JSONArray histogram = new JSONArray();
+            for(int i = 0; i < latency.length(); i++) histogram.put(latency.get(i));
+            json.put("latency", histogram);
+
+            json.put("payloads", payloadCount);
+            json.put("totalBytes", totalBytes.get());
+            json.put("meanBytes", payloadCount == 0 ? 0 : totalBytes.get() / payloadCount);
+            json.put("maxBytes", maxBytes.get());
+
+            long samples = phaseSamples.get();
+
+            if(samples > 0) {
+                JSONObject phases = new JSONObject();
+                phases.put("samples", samples);
+                phases.put("backendMicros", backendNanos.get() / samples / 1000);
+                phases.put("encodeMicros", encodeNanos.get() / samples / 1000);
+                phases.put("sendMicros", sendNanos.get() / samples / 1000);
+                json.put("phases", phases);
+            }
+
+            return json;
+        }
+
+        private static int bucket(long micros) {
+            for(int i = 0; i < LATENCY_BUCKETS.length; i++) {
+                if(micros <= LATENCY_BUCKETS[i]) return i;
+            }
+
+            return LATENCY_BUCKETS.length;
+        }
+
+        private static boolean isError(PluginResult result) {
+            return result.getStatus() != PluginResult.Status.OK.ordinal() &&
+                    result.getStatus() != PluginResult.Status.NO_RESULT.ordinal();
+        }
+
+        private static void updateMax(AtomicLong max, long value) {
+            long current = max.get();
+
+            while(value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+    }
+
+    /**
+     * Records the time from the action being executed until its final result
+     * is sent. Results that keep the callback only count towards the payload.
+     * Every result sent from the thread running the action also records the
+     * phases since the previous one.
+     */
+    private class ActionCallbackContext extends CallbackContext {
+        private final String action;
+        private final CallbackContext callbackContext;
+        private final long start = System.nanoTime();
+
+        ActionCallbackContext(String action, CallbackContext callbackContext, CordovaWebView webView) {
+            super(callbackContext.getCallbackId(), webView);
+            this.action = action;
+            this.callbackContext = callbackContext;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return callbackContext.isFinished();
+        }
+
+        @Override
+        public void sendPluginResult(PluginResult pluginResult) {
+            long sendStart = System.nanoTime();
+            callbackContext.sendPluginResult(pluginResult);
+            long end = System.nanoTime();
+
+            Metric metric = getMetric(actions, action);
+            ActionPhases actionPhases = phases.get();
+
+            if(actionPhases.depth > 0) {
+                long backend = actionPhases.backendNanos;
+                metric.recordPhases(backend, sendStart - actionPhases.mark - backend, end - sendStart);
+                actionPhases.mark = end;
+                actionPhases.backendNanos = 0;
+            }
+
+            if(pluginResult.getKeepCallback()) metric.recordPayload(pluginResult);
+            else metric.record(end - start, pluginResult);
+        }
+    }
+}
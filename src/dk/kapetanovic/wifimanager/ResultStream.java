@@ -0,0 +1,46 @@
+package dk.kapetanovic.wifimanager;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+
+/**
+ * Sends a list as a series of keep-callback results of at most a page of
+ * items each, so JavaScript can parse and render the first page while the
+ * rest are still being encoded. Items are encoded a page at a time and the
+ * last result is the end of stream marker { end: true, count }.
+ */
+class ResultStream {
+    interface Encoder<T> {
+        Object encode(T item) throws JSONException;
+    }
+
+    static <T> void send(List<T> items, int pageSize, Encoder<T> encoder,
+                         CallbackContext callbackContext) throws JSONException {
+        int count = items == null ? 0 : items.size();
+        int size = Math.max(1, pageSize);
+
+        for(int offset = 0; offset < count; offset += size) {
+            JSONArray page = new JSONArray();
+            int end = Math.min(count, offset + size);
+            for(int i = offset; i < end; i++) page.put(encoder.encode(items.get(i)));
+
+            JSONObject json = new JSONObject();
+            json.put("data", page);
+            json.put("offset", offset);
+
+            PluginResult result = new PluginResult(PluginResult.Status.OK, json);
+            result.setKeepCallback(true);
+            callbackContext.sendPluginResult(result);
+        }
+
+        JSONObject json = new JSONObject();
+        json.put("end", true);
+        json.put("count", count);
+        callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, json));
+    }
+}
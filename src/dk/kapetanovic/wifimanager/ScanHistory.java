@@ -0,0 +1,596 @@
+package dk.kapetanovic.wifimanager;
+
+import android.net.wifi.ScanResult;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Append-only log of scans, split into segment files that are memory-mapped
+ * for reading. Each segment keeps an in-memory index from BSSID to the rows
+ * that mention it, and SSIDs map to the BSSIDs seen with them. The index is
+ * rebuilt from the files when the history is opened. All values are big
+ * endian.
+ *
+ *   record   u32 length of the rest, i64 time in ms since the epoch,
+ *            u16 row count, rows
+ *   row      BSSID 6 bytes, frequency u16, level i8, SSID and capabilities
+ *            as u16 length followed by the UTF-8 bytes
+ *
+ * A string length of 0xFFFF means null. A record that was cut short, e.g.
+ * by a crash, is dropped when the last segment is opened.
+ *
+ * Compaction writes its outputs to temporary files and syncs them, then
+ * records what replaces what in a marker file. Only then are the outputs
+ * renamed over the segments and the surplus segments deleted, so a crash
+ * leaves either the old segments or a marker to finish the job from.
+ */
+class ScanHistory {
+    private static final int SEGMENT_SIZE = 1 << 20;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String COMPACTION = "compaction";
+    private static final int RECORD_HEADER_SIZE = 4 + 8 + 2;
+    private static final int ROW_HEADER_SIZE = 6 + 2 + 1;
+    private static final int NULL_STRING = 0xFFFF;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Growable list of row positions, record offset in the high and row
+    // offset in the low 32 bits
+    private static class Positions {
+        long[] values = new long[4];
+        int size = 0;
+
+        void add(long value) {
+            if(size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+
+    private static class Segment {
+        final File file;
+        final int sequence;
+        final Map<Long, Positions> bssids = new HashMap<Long, Positions>();
+        int size = 0;
+        int records = 0;
+        long firstTime = Long.MAX_VALUE;
+        long lastTime = Long.MIN_VALUE;
+        MappedByteBuffer buffer;
+
+        Segment(File file, int sequence) {
+            this.file = file;
+            this.sequence = sequence;
+        }
+    }
+
+    private static class Observation {
+        final long time;
+        final JSONObject json;
+
+        Observation(long time, JSONObject json) {
+            this.time = time;
+            this.json = json;
+        }
+    }
+
+    private static final Comparator<Observation> BY_TIME = new Comparator<Observation>() {
+        @Override
+        public int compare(Observation a, Observation b) {
+            return a.time < b.time ? -1 : (a.time == b.time ? 0 : 1);
+        }
+    };
+
+    private final File directory;
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private final Map<String, Set<Long>> ssids = new HashMap<String, Set<Long>>();
+    private RandomAccessFile active;
+
+    ScanHistory(File directory) {
+        this.directory = directory;
+    }
+
+    synchronized void append(long time, List<ScanResult> scanResults) throws IOException {
+        open();
+
+        Segment segment = segments.get(segments.size() - 1);
+
+        if(segment.size >= SEGMENT_SIZE) {
+            active.close();
+            segment = new Segment(getFile(segment.sequence + 1, SEGMENT_SUFFIX), segment.sequence + 1);
+            segments.add(segment);
+            active = new RandomAccessFile(segment.file, "rw");
+        }
+
+        ByteBuffer record = encode(time, scanResults);
+        FileChannel channel = active.getChannel();
+        while(record.hasRemaining()) channel.write(record, segment.size + record.position());
+
+        index(segment, record, 0, segment.size);
+        segment.size += record.limit();
+    }
+
+    /**
+     * Observations within the time range, oldest first. Narrowed down by
+     * BSSID and SSID when given, either may be null.
+     */
+    synchronized JSONArray query(String bssid, String ssid, long from, long to, int limit)
+            throws IOException, JSONException {
+        open();
+
+        List<Observation> observations = new ArrayList<Observation>();
+
+        if(bssid == null && ssid == null) {
+            // Records are in time order, so the first ones found are the oldest
+            for(Segment segment : segments) {
+                if(segment.records == 0 || segment.lastTime < from || segment.firstTime > to) continue;
+
+                ByteBuffer buffer = map(segment);
+
+                for(int offset = 0; offset < segment.size && observations.size() < limit;
+                    offset += 4 + buffer.getInt(offset)) {
+                    long time = buffer.getLong(offset + 4);
+                    if(time < from || time > to) continue;
+
+                    int count = buffer.getShort(offset + 12) & 0xFFFF;
+                    int row = offset + RECORD_HEADER_SIZE;
+
+                    for(int i = 0; i < count && observations.size() < limit; i++) {
+                        observations.add(new Observation(time, toJSON(buffer, time, row)));
+                        row = skipRow(buffer, row);
+                    }
+                }
+            }
+        } else {
+            Set<Long> candidates = new HashSet<Long>();
+
+            if(bssid != null) candidates.add(toLong(bssid));
+            if(ssid != null) {
+                Set<Long> seen = ssids.get(ssid);
+                if(bssid == null && seen != null) candidates.addAll(seen);
+                else if(seen == null || !seen.contains(toLong(bssid))) candidates.clear();
+            }
+
+            for(Segment segment : segments) {
+                if(segment.records == 0 || segment.lastTime < from || segment.firstTime > to) continue;
+
+                ByteBuffer buffer = null;
+
+                for(Long candidate : candidates) {
+                    Positions positions = segment.bssids.get(candidate);
+                    if(positions == null) continue;
+                    if(buffer == null) buffer = map(segment);
+
+                    for(int i = 0; i < positions.size; i++) {
+                        int offset = (int) (positions.values[i] >>> 32);
+                        int row = (int) positions.values[i];
+                        long time = buffer.getLong(offset + 4);
+                        if(time < from || time > to) continue;
+
+                        // A BSSID may have been seen with other SSIDs too
+                        if(ssid != null && !ssid.equals(readString(buffer, row + ROW_HEADER_SIZE))) continue;
+
+                        observations.add(new Observation(time, toJSON(buffer, time, row)));
+                    }
+                }
+            }
+
+            Collections.sort(observations, BY_TIME);
+        }
+
+        JSONArray json = new JSONArray();
+        for(int i = 0; i < observations.size() && i < limit; i++) json.put(observations.get(i).json);
+
+        return json;
+    }
+
+    /**
+     * Rewrites every segment but the one being appended to, dropping the
+     * scans older than the given time and merging segments that became
+     * small.
+     */
+    synchronized JSONObject compact(long before) throws IOException, JSONException {
+        open();
+
+        List<Segment> sealed = new ArrayList<Segment>(segments.subList(0, segments.size() - 1));
+        List<File> outputs = new ArrayList<File>();
+        RandomAccessFile output = null;
+        long outputSize = 0;
+        int removed = 0;
+
+        try {
+            for(Segment segment : sealed) {
+                ByteBuffer buffer = map(segment);
+
+                for(int offset = 0; offset < segment.size; ) {
+                    int length = 4 + buffer.getInt(offset);
+
+                    if(buffer.getLong(offset + 4) < before) {
+                        removed++;
+                    } else {
+                        // Same rule as when appending, so there are never
+                        // more outputs than segments
+                        if(output == null || outputSize >= SEGMENT_SIZE) {
+                            if(output != null) {
+                                output.getChannel().force(true);
+                                output.close();
+                            }
+
+                            File file = getFile(sealed.get(outputs.size()).sequence, TEMP_SUFFIX);
+                            outputs.add(file);
+                            output = new RandomAccessFile(file, "rw");
+                            output.setLength(0);
+                            outputSize = 0;
+                        }
+
+                        ByteBuffer record = buffer.duplicate();
+                        record.limit(offset + length).position(offset);
+                        while(record.hasRemaining()) output.getChannel().write(record);
+                        outputSize += length;
+                    }
+
+                    offset += length;
+                }
+            }
+
+            if(output != null) output.getChannel().force(true);
+        } finally {
+            if(output != null) output.close();
+        }
+
+        if(removed > 0 || outputs.size() < sealed.size()) {
+            int[] sequences = new int[sealed.size()];
+            for(int i = 0; i < sequences.length; i++) sequences[i] = sealed.get(i).sequence;
+
+            close();
+            writeCompaction(outputs.size(), sequences);
+            finishCompaction();
+            open();
+        } else {
+            for(File file : outputs) file.delete();
+        }
+
+        long bytes = 0;
+        for(Segment segment : segments) bytes += segment.size;
+
+        JSONObject json = new JSONObject();
+        json.put("removed", removed);
+        json.put("segments", segments.size());
+        json.put("bytes", bytes);
+
+        return json;
+    }
+
+    synchronized void close() {
+        if(active != null) {
+            try {
+                active.close();
+            } catch(IOException e) {
+                // Nothing left to flush, writes go straight to the channel
+            }
+        }
+
+        active = null;
+        segments.clear();
+        ssids.clear();
+    }
+
+    private void open() throws IOException {
+        if(active != null) return;
+
+        if(!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Cannot create " + directory);
+
+        // A compaction that got as far as its marker is finished, other
+        // temporary files are left behind by one that did not
+        finishCompaction();
+
+        File[] temps = directory.listFiles(new SuffixFilter(TEMP_SUFFIX));
+        if(temps != null) for(File file : temps) file.delete();
+
+        File[] files = directory.listFiles(new SuffixFilter(SEGMENT_SUFFIX));
+        int[] sequences = new int[files == null ? 0 : files.length];
+
+        for(int i = 0; i < sequences.length; i++) {
+            String name = files[i].getName();
+            sequences[i] = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        }
+
+        Arrays.sort(sequences);
+
+        for(int sequence : sequences) {
+            Segment segment = new Segment(getFile(sequence, SEGMENT_SUFFIX), sequence);
+            load(segment);
+            segments.add(segment);
+        }
+
+        if(segments.isEmpty()) segments.add(new Segment(getFile(0, SEGMENT_SUFFIX), 0));
+
+        Segment last = segments.get(segments.size() - 1);
+        active = new RandomAccessFile(last.file, "rw");
+        active.setLength(last.size);
+    }
+
+    private void writeCompaction(int outputs, int[] sequences) throws IOException {
+        File temp = new File(directory, COMPACTION + TEMP_SUFFIX);
+        RandomAccessFile file = new RandomAccessFile(temp, "rw");
+
+        try {
+            file.setLength(0);
+            file.writeInt(outputs);
+            file.writeInt(sequences.length);
+            for(int sequence : sequences) file.writeInt(sequence);
+            file.getChannel().force(true);
+        } finally {
+            file.close();
+        }
+
+        if(!temp.renameTo(new File(directory, COMPACTION))) throw new IOException("Cannot rename " + temp);
+    }
+
+    // Renames the first outputs over the segments they replace, which is
+    // atomic, and deletes the remaining segments. Safe to run again.
+    private void finishCompaction() throws IOException {
+        File marker = new File(directory, COMPACTION);
+        if(!marker.isFile()) return;
+
+        int outputs;
+        int[] sequences;
+        RandomAccessFile file = new RandomAccessFile(marker, "r");
+
+        try {
+            outputs = file.readInt();
+            sequences = new int[file.readInt()];
+            for(int i = 0; i < sequences.length; i++) sequences[i] = file.readInt();
+        } finally {
+            file.close();
+        }
+
+        for(int i = 0; i < sequences.length; i++) {
+            File segment = getFile(sequences[i], SEGMENT_SUFFIX);
+
+            if(i < outputs) {
+                File output = getFile(sequences[i], TEMP_SUFFIX);
+                if(output.exists() && !output.renameTo(segment)) throw new IOException("Cannot rename " + output);
+            } else if(segment.exists() && !segment.delete()) {
+                throw new IOException("Cannot delete " + segment);
+            }
+        }
+
+        if(!marker.delete()) throw new IOException("Cannot delete " + marker);
+    }
+
+    private void load(Segment segment) throws IOException {
+        segment.size = (int) segment.file.length();
+        ByteBuffer buffer = map(segment);
+        int offset = 0;
+
+        while(offset + RECORD_HEADER_SIZE <= segment.size) {
+            int length = buffer.getInt(offset);
+            if(length < RECORD_HEADER_SIZE - 4 || offset + 4 + length > segment.size) break;
+
+            index(segment, buffer, offset, offset);
+            offset += 4 + length;
+        }
+
+        if(offset < segment.size) {
+            segment.size = offset;
+            segment.buffer = null;
+        }
+    }
+
+    private void index(Segment segment, ByteBuffer buffer, int at, int offset) {
+        long time = buffer.getLong(at + 4);
+        int count = buffer.getShort(at + 12) & 0xFFFF;
+        int row = at + RECORD_HEADER_SIZE;
+
+        for(int i = 0; i < count; i++) {
+            long bssid = readBssid(buffer, row);
+            String ssid = readString(buffer, row + ROW_HEADER_SIZE);
+
+            Positions positions = segment.bssids.get(bssid);
+
+            if(positions == null) {
+                positions = new Positions();
+                segment.bssids.put(bssid, positions);
+            }
+
+            positions.add(((long) offset << 32) | (row - at + offset));
+
+            if(ssid != null) {
+                Set<Long> seen = ssids.get(ssid);
+
+                if(seen == null) {
+                    seen = new HashSet<Long>();
+                    ssids.put(ssid, seen);
+                }
+
+                seen.add(bssid);
+            }
+
+            row = skipRow(buffer, row);
+        }
+
+        segment.records++;
+        segment.firstTime = Math.min(segment.firstTime, time);
+        segment.lastTime = Math.max(segment.lastTime, time);
+    }
+
+    private ByteBuffer map(Segment segment) throws IOException {
+        if(segment.buffer == null || segment.buffer.capacity() != segment.size) {
+            RandomAccessFile file = new RandomAccessFile(segment.file, "r");
+
+            try {
+                // The mapping stays valid after the file is closed
+                segment.buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, segment.size);
+            } finally {
+                file.close();
+            }
+        }
+
+        return segment.buffer;
+    }
+
+    private File getFile(int sequence, String suffix) {
+        return new File(directory, String.format(Locale.US, "%08d%s", sequence, suffix));
+    }
+
+    private static ByteBuffer encode(long time, List<ScanResult> scanResults) {
+        List<ScanResult> rows = new ArrayList<ScanResult>();
+
+        if(scanResults != null) {
+            for(ScanResult scanResult : scanResults) {
+                if(scanResult != null && rows.size() < 0xFFFF) rows.add(scanResult);
+            }
+        }
+
+        byte[][] ssids = new byte[rows.size()][];
+        byte[][] capabilities = new byte[rows.size()][];
+        int size = RECORD_HEADER_SIZE;
+
+        for(int i = 0; i < rows.size(); i++) {
+            ssids[i] = toBytes(rows.get(i).SSID);
+            capabilities[i] = toBytes(rows.get(i).capabilities);
+            size += ROW_HEADER_SIZE + 2 + (ssids[i] == null ? 0 : ssids[i].length) +
+                    2 + (capabilities[i] == null ? 0 : capabilities[i].length);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(size - 4);
+        buffer.putLong(time);
+        buffer.putShort((short) rows.size());
+
+        for(int i = 0; i < rows.size(); i++) {
+            ScanResult scanResult = rows.get(i);
+            long bssid = toLong(scanResult.BSSID);
+
+            for(int shift = 40; shift >= 0; shift -= 8) buffer.put((byte) (bssid >>> shift));
+            buffer.putShort((short) scanResult.frequency);
+            buffer.put((byte) Math.max(-128, Math.min(127, scanResult.level)));
+            putString(buffer, ssids[i]);
+            putString(buffer, capabilities[i]);
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    private static JSONObject toJSON(ByteBuffer buffer, long time, int row) throws JSONException {
+        String ssid = readString(buffer, row + ROW_HEADER_SIZE);
+        int capabilities = row + ROW_HEADER_SIZE + 2 + stringLength(buffer, row + ROW_HEADER_SIZE);
+        String capability = readString(buffer, capabilities);
+
+        JSONObject json = new JSONObject();
+        json.put("timestamp", time);
+        json.put("BSSID", toString(readBssid(buffer, row)));
+        json.put("SSID", ssid == null ? JSONObject.NULL : ssid);
+        json.put("capabilities", capability == null ? JSONObject.NULL : capability);
+        json.put("frequency", buffer.getShort(row + 6) & 0xFFFF);
+        json.put("level", buffer.get(row + 8));
+
+        return json;
+    }
+
+    private static int skipRow(ByteBuffer buffer, int row) {
+        int ssid = row + ROW_HEADER_SIZE;
+        int capabilities = ssid + 2 + stringLength(buffer, ssid);
+        return capabilities + 2 + stringLength(buffer, capabilities);
+    }
+
+    private static long readBssid(ByteBuffer buffer, int row) {
+        long bssid = 0;
+        for(int i = 0; i < 6; i++) bssid = (bssid << 8) | (buffer.get(row + i) & 0xFF);
+        return bssid;
+    }
+
+    private static int stringLength(ByteBuffer buffer, int at) {
+        int length = buffer.getShort(at) & 0xFFFF;
+        return length == NULL_STRING ? 0 : length;
+    }
+
+    private static String readString(ByteBuffer buffer, int at) {
+        int length = buffer.getShort(at) & 0xFFFF;
+        if(length == NULL_STRING) return null;
+
+        byte[] bytes = new byte[length];
+        for(int i = 0; i < length; i++) bytes[i] = buffer.get(at + 2 + i);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if(bytes == null) {
+            buffer.putShort((short) NULL_STRING);
+        } else {
+            buffer.putShort((short) bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static byte[] toBytes(String value) {
+        if(value == null) return null;
+
+        byte[] bytes = value.getBytes(UTF_8);
+        return bytes.length < NULL_STRING ? bytes : null;
+    }
+
+    // BSSIDs that are not MAC addresses are stored as all zeros
+    private static long toLong(String bssid) {
+        if(bssid == null || bssid.length() != 17) return 0;
+
+        long value = 0;
+
+        try {
+            for(int i = 0; i < 6; i++) {
+                value = (value << 8) | Integer.parseInt(bssid.substring(i * 3, i * 3 + 2), 16);
+            }
+        } catch(NumberFormatException e) {
+            return 0;
+        }
+
+        return value;
+    }
+
+    private static String toString(long bssid) {
+        StringBuilder builder = new StringBuilder(17);
+
+        for(int shift = 40; shift >= 0; shift -= 8) {
+            if(builder.length() > 0) builder.append(':');
+            int b = (int) (bssid >>> shift) & 0xFF;
+            if(b < 16) builder.append('0');
+            builder.append(Integer.toHexString(b));
+        }
+
+        return builder.toString();
+    }
+
+    private static class SuffixFilter implements FileFilter {
+        private final String suffix;
+
+        SuffixFilter(String suffix) {
+            this.suffix = suffix;
+        }
+
+        @Override
+        public boolean accept(File file) {
+            return file.isFile() && file.getName().endsWith(suffix);
+        }
+    }
+}
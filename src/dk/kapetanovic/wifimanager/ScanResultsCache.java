@@ -0,0 +1,66 @@
+package dk.kapetanovic.wifimanager;
+
+import android.net.wifi.ScanResult;
+import android.os.SystemClock;
+
+import org.apache.cordova.PluginResult;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the latest scan results and their encoded plugin results until the
+ * next scan completes. Every invalidation bumps the generation, values
+ * computed for an older generation are dropped when stored.
+ */
+class ScanResultsCache {
+    private final long maxAge;
+
+    private long generation = 0;
+    private long capturedAt = 0;
+    private List<ScanResult> scanResults;
+    private final Map<String, PluginResult> results = new HashMap<String, PluginResult>();
+
+    ScanResultsCache(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    boolean isEnabled() {
+        return maxAge > 0;
+    }
+
+    synchronized long getGeneration() {
+        if(scanResults != null && SystemClock.elapsedRealtime() - capturedAt > maxAge) {
+            invalidate();
+        }
+
+        return generation;
+    }
+
+    synchronized List<ScanResult> getScanResults(long generation) {
+        return generation == this.generation ? scanResults : null;
+    }
+
+    synchronized void putScanResults(long generation, List<ScanResult> scanResults) {
+        if(maxAge <= 0 || generation != this.generation || this.scanResults != null) return;
+
+        this.scanResults = scanResults;
+        this.capturedAt = SystemClock.elapsedRealtime();
+    }
+
+    synchronized PluginResult getResult(long generation, String key) {
+        return generation == this.generation ? results.get(key) : null;
+    }
+
+    synchronized void putResult(long generation, String key, PluginResult result) {
+        if(maxAge <= 0 || generation != this.generation || scanResults == null) return;
+        results.put(key, result);
+    }
+
+    synchronized void invalidate() {
+        generation++;
+        scanResults = null;
+        results.clear();
+    }
+}
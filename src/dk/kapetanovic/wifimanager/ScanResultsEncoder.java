@@ -0,0 +1,128 @@
+package dk.kapetanovic.wifimanager;
+
+import android.net.wifi.ScanResult;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packs scan results into a columnar binary format, decoded by www/index.js.
+ * All values are big endian.
+ *
+ *   header   u8 version, u8 kind, u16 flags, u32 count, u32 string count
+ *   columns  BSSID 6 bytes, frequency u16, centerFreq0 u16, centerFreq1 u16,
+ *            channelWidth u8, level i8, timestamp u32 high + u32 low,
+ *            SSID u16 and capabilities u16 string indices, one column
+ *            after the other with count entries each
+ *   strings  u16 length followed by the UTF-8 bytes, one per string
+ *
+ * A string index of 0xFFFF means null. BSSIDs that are not MAC addresses
+ * are encoded as all zeros.
+ */
+class ScanResultsEncoder {
+    static final int VERSION = 1;
+
+    static final int KIND_SCAN_RESULTS = 1;
+    static final int KIND_SCAN_RESULTS_EVENT = 2;
+
+    static final int FLAG_RESULTS_UPDATED = 1;
+
+    private static final int HEADER_SIZE = 12;
+    private static final int ROW_SIZE = 6 + 2 + 2 + 2 + 1 + 1 + 8 + 2 + 2;
+    private static final int NULL_STRING = 0xFFFF;
+    private static final int MAX_STRINGS = 0xFFFF;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static byte[] encode(List<ScanResult> scanResults, int kind, int flags) {
+        List<ScanResult> rows = new ArrayList<ScanResult>();
+
+        if(scanResults != null) {
+            for(ScanResult scanResult : scanResults) {
+                if(scanResult != null) rows.add(scanResult);
+            }
+        }
+
+        int count = rows.size();
+        List<byte[]> strings = new ArrayList<byte[]>();
+        Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+        int[] ssids = new int[count];
+        int[] capabilities = new int[count];
+        int stringBytes = 0;
+
+        for(int i = 0; i < count; i++) {
+            ScanResult scanResult = rows.get(i);
+            ssids[i] = intern(scanResult.SSID, strings, stringIndex);
+            capabilities[i] = intern(scanResult.capabilities, strings, stringIndex);
+        }
+
+        for(byte[] string : strings) stringBytes += 2 + string.length;
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * ROW_SIZE + stringBytes);
+        buffer.put((byte) VERSION);
+        buffer.put((byte) kind);
+        buffer.putShort((short) flags);
+        buffer.putInt(count);
+        buffer.putInt(strings.size());
+
+        for(ScanResult scanResult : rows) putBssid(buffer, scanResult.BSSID);
+        for(ScanResult scanResult : rows) buffer.putShort((short) scanResult.frequency);
+        for(ScanResult scanResult : rows) buffer.putShort((short) scanResult.centerFreq0);
+        for(ScanResult scanResult : rows) buffer.putShort((short) scanResult.centerFreq1);
+        for(ScanResult scanResult : rows) buffer.put((byte) scanResult.channelWidth);
+        for(ScanResult scanResult : rows) buffer.put((byte) Math.max(-128, Math.min(127, scanResult.level)));
+        for(ScanResult scanResult : rows) buffer.putLong(scanResult.timestamp);
+        for(int ssid : ssids) buffer.putShort((short) ssid);
+        for(int capability : capabilities) buffer.putShort((short) capability);
+
+        for(byte[] string : strings) {
+            buffer.putShort((short) string.length);
+            buffer.put(string);
+        }
+
+        return buffer.array();
+    }
+
+    static boolean canEncode(List<ScanResult> scanResults) {
+        // Every row adds at most two strings to the table
+        return scanResults == null || scanResults.size() * 2 < MAX_STRINGS;
+    }
+
+    private static int intern(String value, List<byte[]> strings, Map<String, Integer> stringIndex) {
+        if(value == null) return NULL_STRING;
+
+        Integer index = stringIndex.get(value);
+
+        if(index == null) {
+            byte[] bytes = value.getBytes(UTF_8);
+
+            // Lengths are stored as u16, SSIDs and capabilities are far shorter
+            if(bytes.length > 0xFFFF) return NULL_STRING;
+
+            index = strings.size();
+            strings.add(bytes);
+            stringIndex.put(value, index);
+        }
+
+        return index;
+    }
+
+    private static void putBssid(ByteBuffer buffer, String bssid) {
+        byte[] bytes = new byte[6];
+
+        if(bssid != null && bssid.length() == 17) {
+            try {
+                for(int i = 0; i < 6; i++) {
+                    bytes[i] = (byte) Integer.parseInt(bssid.substring(i * 3, i * 3 + 2), 16);
+                }
+            } catch(NumberFormatException e) {
+                bytes = new byte[6];
+            }
+        }
+
+        buffer.put(bytes);
+    }
+}
@@ -0,0 +1,323 @@
+package dk.kapetanovic.wifimanager;
+
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiManager;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Starts scans on behalf of startScan, scanAndWait and periodic scanning.
+ * Requests made while a scan is in flight join that scan, and no more than
+ * the budget of scans are started per window. Requests over the budget are
+ * deferred until the oldest scan leaves the window.
+ *
+ * Periodic scanning doubles its interval up to the maximum while the access
+ * points in range stay the same, and drops back once they change.
+ */
+class ScanScheduler {
+    // Give up on a scan whose results never arrived after this long
+    private static final long SCAN_TIMEOUT = 30000;
+
+    private class Waiter implements Runnable {
+        private final Runnable callback;
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        private volatile ScheduledFuture<?> timeout;
+
+        Waiter(Runnable callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            if(!done.compareAndSet(false, true)) return;
+
+            ScheduledFuture<?> timeout = this.timeout;
+            if(timeout != null) timeout.cancel(false);
+            executor.execute(callback);
+        }
+    }
+
+    private final WifiBackend backend;
+    private final BroadcastRegistration registration;
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+
+    private final long[] starts;
+    private final long window;
+    private int startCount = 0;
+    private int nextStart = 0;
+
+    private long inFlightSince = -1;
+    private int claims = 0;
+    private ScheduledFuture<?> deferred;
+    private final List<Waiter> waiters = new ArrayList<Waiter>();
+    private boolean active = true;
+
+    // Registering receivers calls into the system, so it is kept out of the
+    // lock the broadcast receiver needs
+    private final Object requiredLock = new Object();
+    private boolean required = false;
+
+    private long periodicInterval = 0;
+    private long periodicMaxInterval = 0;
+    private long currentInterval = 0;
+    private long fingerprint = 0;
+    private ScheduledFuture<?> periodic;
+
+    private final Runnable periodicScan = new Runnable() {
+        @Override
+        public void run() {
+            requestScan();
+
+            synchronized(ScanScheduler.this) {
+                // In case the results never arrive
+                schedulePeriodic(currentInterval);
+            }
+        }
+    };
+
+    /**
+     * Scan results are handed to waiters on the executor, timers run on the
+     * scheduler.
+     */
+    ScanScheduler(WifiBackend backend, BroadcastRegistration registration, ScheduledExecutorService scheduler,
+                  Executor executor, int budget, long window) {
+        this.backend = backend;
+        this.registration = registration;
+        this.scheduler = scheduler;
+        this.executor = executor;
+        this.starts = new long[Math.max(1, budget)];
+        this.window = window;
+    }
+
+    /**
+     * Returns false if the platform refused to scan, true if a scan was
+     * started, is in flight or is deferred because of the budget.
+     */
+    boolean requestScan() {
+        int claim;
+        int start;
+        long replaced;
+        int replacedCount;
+
+        synchronized(this) {
+            long now = SystemClock.elapsedRealtime();
+            if(inFlightSince >= 0 && now - inFlightSince < SCAN_TIMEOUT) return true;
+
+            long wait = getBudgetWait(now);
+
+            if(wait > 0) {
+                defer(wait);
+                return true;
+            }
+
+            // Claim the scan and its place in the budget, startScan blocks
+            // and must not run under the lock
+            inFlightSince = now;
+            claim = ++claims;
+            start = nextStart;
+            replaced = starts[start];
+            replacedCount = startCount;
+            starts[start] = now;
+            nextStart = (start + 1) % starts.length;
+            startCount = Math.min(startCount + 1, starts.length);
+        }
+
+        // Listen before starting so the results cannot be missed
+        syncRequired();
+
+        if(backend.startScan()) return true;
+
+        List<Waiter> completed;
+
+        synchronized(this) {
+            // Unless results arrived and another scan was claimed meanwhile
+            if(claim != claims) return false;
+
+            // Throttled or disabled, the latest results are all there is
+            inFlightSince = -1;
+            starts[start] = replaced;
+            nextStart = start;
+            startCount = replacedCount;
+            completed = takeWaiters();
+        }
+
+        syncRequired();
+        for(Waiter waiter : completed) waiter.run();
+        return false;
+    }
+
+    /**
+     * Runs the callback once the next scan results are available, or after
+     * the timeout with whatever results are there.
+     */
+    void scanAndWait(Runnable callback, long timeout) {
+        final Waiter waiter = new Waiter(callback);
+
+        synchronized(this) {
+            waiters.add(waiter);
+        }
+
+        syncRequired();
+
+        waiter.timeout = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized(ScanScheduler.this) {
+                    waiters.remove(waiter);
+                }
+
+                syncRequired();
+                waiter.run();
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+
+        requestScan();
+    }
+
+    void onScanResultsAvailable() {
+        List<Waiter> completed;
+        boolean adapt;
+
+        synchronized(this) {
+            inFlightSince = -1;
+            completed = takeWaiters();
+            adapt = periodicInterval > 0 && active;
+        }
+
+        syncRequired();
+        for(Waiter waiter : completed) waiter.run();
+
+        if(adapt) {
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    adaptInterval();
+                }
+            });
+        }
+    }
+
+    void startPeriodic(long interval, long maxInterval) {
+        synchronized(this) {
+            periodicInterval = Math.max(1, interval);
+            periodicMaxInterval = Math.max(periodicInterval, maxInterval);
+            currentInterval = periodicInterval;
+            fingerprint = 0;
+            if(active) schedulePeriodic(0);
+        }
+
+        syncRequired();
+    }
+
+    void stopPeriodic() {
+        synchronized(this) {
+            periodicInterval = 0;
+            if(periodic != null) periodic.cancel(false);
+            periodic = null;
+        }
+
+        syncRequired();
+    }
+
+    /**
+     * Periodic scanning is suspended while inactive, e.g. while the app is
+     * paused.
+     */
+    synchronized void setActive(boolean active) {
+        if(this.active == active) return;
+        this.active = active;
+
+        if(periodicInterval <= 0) return;
+
+        if(active) {
+            currentInterval = periodicInterval;
+            schedulePeriodic(0);
+        } else if(periodic != null) {
+            periodic.cancel(false);
+            periodic = null;
+        }
+    }
+
+    private void adaptInterval() {
+        List<ScanResult> scanResults = backend.getScanResults();
+        long next = 0;
+
+        if(scanResults != null) {
+            // Independent of the order the platform reports them in
+            for(ScanResult scanResult : scanResults) {
+                if(scanResult.BSSID != null) next += scanResult.BSSID.hashCode();
+            }
+
+            next = next * 31 + scanResults.size();
+        }
+
+        synchronized(this) {
+            if(periodicInterval <= 0 || !active) return;
+
+            currentInterval = next == fingerprint ?
+                    Math.min(currentInterval * 2, periodicMaxInterval) :
+                    periodicInterval;
+            fingerprint = next;
+            schedulePeriodic(currentInterval);
+        }
+    }
+
+    private void schedulePeriodic(long delay) {
+        if(periodicInterval <= 0 || !active) return;
+
+        if(periodic != null) periodic.cancel(false);
+        periodic = scheduler.schedule(periodicScan, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private long getBudgetWait(long now) {
+        if(startCount < starts.length) return 0;
+
+        // The oldest start is the one about to be overwritten
+        long oldest = starts[nextStart];
+        return Math.max(0, oldest + window - now);
+    }
+
+    private void defer(long wait) {
+        if(deferred != null && !deferred.isDone()) return;
+
+        deferred = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                requestScan();
+            }
+        }, wait, TimeUnit.MILLISECONDS);
+    }
+
+    private List<Waiter> takeWaiters() {
+        List<Waiter> completed = new ArrayList<Waiter>(waiters);
+        waiters.clear();
+        return completed;
+    }
+
+    // Called without holding the scheduler's lock after every change to the
+    // state it depends on. Reads the latest state, so the registration ends
+    // up matching it whatever order concurrent callers get here in.
+    private void syncRequired() {
+        synchronized(requiredLock) {
+            boolean required;
+
+            synchronized(this) {
+                required = inFlightSince >= 0 || !waiters.isEmpty() || periodicInterval > 0;
+            }
+
+            if(required == this.required) return;
+
+            this.required = required;
+            if(required) registration.require(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION);
+            else registration.release(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package dk.kapetanovic.wifimanager;
+
+import android.net.wifi.ScanResult;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the last scan snapshots handed out to callers, keyed by cursor, so
+ * that a caller can ask for only what changed since its previous call.
+ */
+class ScanSnapshots {
+    private static final int MAX_SNAPSHOTS = 16;
+
+    interface Encoder {
+        Object encode(ScanResult scanResult) throws JSONException;
+    }
+
+    private final Map<Long, Map<String, ScanResult>> snapshots =
+            new LinkedHashMap<Long, Map<String, ScanResult>>(MAX_SNAPSHOTS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Map<String, ScanResult>> eldest) {
+                    return size() > MAX_SNAPSHOTS;
+                }
+            };
+
+    private long nextCursor = 1;
+
+    synchronized JSONObject diff(List<ScanResult> scanResults, long cursor, int levelThreshold,
+                                 Encoder encoder) throws JSONException {
+        Map<String, ScanResult> previous = snapshots.get(cursor);
+        Map<String, ScanResult> current = new HashMap<String, ScanResult>();
+
+        JSONArray added = new JSONArray();
+        JSONArray changed = new JSONArray();
+        JSONArray removed = new JSONArray();
+
+        if(scanResults != null) {
+            for(ScanResult scanResult : scanResults) {
+                if(scanResult == null || scanResult.BSSID == null) continue;
+
+                ScanResult known = previous == null ? null : previous.get(scanResult.BSSID);
+
+                if(known == null) {
+                    added.put(encoder.encode(scanResult));
+                    current.put(scanResult.BSSID, scanResult);
+                } else if(isChanged(known, scanResult, levelThreshold)) {
+                    changed.put(encoder.encode(scanResult));
+                    current.put(scanResult.BSSID, scanResult);
+                } else {
+                    // Keep what the caller last saw, so small level
+                    // changes add up until they cross the threshold
+                    current.put(scanResult.BSSID, known);
+                }
+            }
+        }
+
+        if(previous != null) {
+            for(String bssid : previous.keySet()) {
+                if(!current.containsKey(bssid)) removed.put(bssid);
+            }
+        }
+
+        long next = nextCursor++;
+        snapshots.put(next, current);
+
+        JSONObject json = new JSONObject();
+        json.put("cursor", next);
+        json.put("reset", previous == null);
+        json.put("added", added);
+        json.put("changed", changed);
+        json.put("removed", removed);
+
+        return json;
+    }
+
+    synchronized void clear() {
+        snapshots.clear();
+    }
+
+    private static boolean isChanged(ScanResult known, ScanResult scanResult, int levelThreshold) {
+        return Math.abs(known.level - scanResult.level) >= levelThreshold ||
+                known.frequency != scanResult.frequency ||
+                known.channelWidth != scanResult.channelWidth ||
+                known.centerFreq0 != scanResult.centerFreq0 ||
+                known.centerFreq1 != scanResult.centerFreq1 ||
+                !equals(known.SSID, scanResult.SSID) ||
+                !equals(known.capabilities, scanResult.capabilities);
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
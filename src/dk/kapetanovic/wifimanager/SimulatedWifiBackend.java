@@ -0,0 +1,710 @@
+package dk.kapetanovic.wifimanager;
+
+import android.content.Intent;
+import android.net.ConnectivityManager;
+import android.net.DhcpInfo;
+import android.net.NetworkInfo;
+import android.net.wifi.ScanResult;
+import android.net.wifi.SupplicantState;
+import android.net.wifi.WifiConfiguration;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.os.SystemClock;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process stand-in for the WiFi stack, for load testing the plugin
+ * without a device. Generates access points with churn and signal drift,
+ * connection transitions and hotspot state changes at configurable rates,
+ * and delivers the matching broadcasts to the plugin's receiver.
+ *
+ * Options are name:value pairs separated by commas, e.g.
+ * "accessPoints:500,churn:0.1,scanInterval:2000". Intervals are in
+ * milliseconds and an interval of 0 turns that generator off.
+ */
+class SimulatedWifiBackend implements WifiBackend {
+    // Same names and values as the hidden WifiManager constants, so that
+    // HiddenApi resolves them on this class
+    public static final String WIFI_AP_STATE_CHANGED_ACTION = "android.net.wifi.WIFI_AP_STATE_CHANGED";
+    public static final String EXTRA_WIFI_AP_STATE = "wifi_state";
+    public static final String EXTRA_PREVIOUS_WIFI_AP_STATE = "previous_wifi_state";
+    public static final int WIFI_AP_STATE_DISABLING = 10;
+    public static final int WIFI_AP_STATE_DISABLED = 11;
+    public static final int WIFI_AP_STATE_ENABLING = 12;
+    public static final int WIFI_AP_STATE_ENABLED = 13;
+    public static final int WIFI_AP_STATE_FAILED = 14;
+
+    private static final String[] CAPABILITIES = {
+            "[WPA2-PSK-CCMP][ESS]",
+            "[WPA-PSK-TKIP+CCMP][WPA2-PSK-TKIP+CCMP][ESS]",
+            "[WPA2-EAP-CCMP][ESS]",
+            "[ESS]"
+    };
+
+    private static final int MIN_LEVEL = -95;
+    private static final int MAX_LEVEL = -30;
+    private static final int TRANSITION_DELAY = 50;
+
+    private int accessPointCount = 50;
+    private double churn = 0.05;
+    private long scanInterval = 10000;
+    private long scanDelay = 500;
+    private long rssiInterval = 3000;
+    private int rssiDrift = 3;
+    private long connectionInterval = 0;
+    private double authFailureRate = 0;
+    private long wifiApInterval = 0;
+
+    private final Random random;
+    private final List<ScanResult> accessPoints = new ArrayList<ScanResult>();
+    private final List<WifiConfiguration> configuredNetworks = new ArrayList<WifiConfiguration>();
+    private List<ScanResult> scanResults = Collections.emptyList();
+    private int nextAccessPoint = 0;
+    private int nextNetworkId = 0;
+
+    private int wifiState = WifiManager.WIFI_STATE_ENABLED;
+    private int wifiApState = WIFI_AP_STATE_DISABLED;
+    private WifiConfiguration wifiApConfiguration = new WifiConfiguration();
+    private ScanResult connectedAccessPoint;
+    private int connectedNetworkId = -1;
+    private int lastNetworkId = -1;
+
+    private volatile BroadcastRegistration registration;
+    private ScheduledExecutorService scheduler;
+
+    SimulatedWifiBackend(String options) {
+        long seed = 1;
+
+        if(options != null) {
+            for(String entry : options.split(",")) {
+                int separator = entry.indexOf(':');
+                if(separator < 0) continue;
+
+                String name = entry.substring(0, separator).trim();
+                String value = entry.substring(separator + 1).trim();
+
+                try {
+                    if(name.equals("accessPoints")) accessPointCount = Integer.parseInt(value);
+                    else if(name.equals("churn")) churn = Double.parseDouble(value);
+                    else if(name.equals("scanInterval")) scanInterval = Long.parseLong(value);
+                    else if(name.equals("scanDelay")) scanDelay = Long.parseLong(value);
+                    else if(name.equals("rssiInterval")) rssiInterval = Long.parseLong(value);
+                    else if(name.equals("rssiDrift")) rssiDrift = Integer.parseInt(value);
+                    else if(name.equals("connectionInterval")) connectionInterval = Long.parseLong(value);
+                    else if(name.equals("authFailureRate")) authFailureRate = Double.parseDouble(value);
+                    else if(name.equals("wifiApInterval")) wifiApInterval = Long.parseLong(value);
+                    else if(name.equals("seed")) seed = Long.parseLong(value);
+                } catch(NumberFormatException e) {
+                    // Keep the default
+                }
+            }
+        }
+
+        random = new Random(seed);
+        for(int i = 0; i < accessPointCount; i++) accessPoints.add(createAccessPoint());
+    }
+
+    @Override
+    public Object getHiddenApiTarget() {
+        return this;
+    }
+
+    @Override
+    public synchronized void start(BroadcastRegistration registration) {
+        this.registration = registration;
+        if(scheduler != null) return;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                scan();
+            }
+        }, 0);
+
+        if(scanInterval > 0) {
+            scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    scan();
+                }
+            }, scanInterval);
+        }
+        if(rssiInterval > 0) {
+            scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    driftRssi();
+                }
+            }, rssiInterval);
+        }
+        if(connectionInterval > 0) {
+            scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    toggleConnection();
+                }
+            }, connectionInterval);
+        }
+        if(wifiApInterval > 0) {
+            scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    boolean enabled;
+                    synchronized(SimulatedWifiBackend.this) {
+                        enabled = wifiApState == WIFI_AP_STATE_ENABLED;
+                    }
+                    changeWifiApState(!enabled);
+                }
+            }, wifiApInterval);
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        if(scheduler != null) scheduler.shutdownNow();
+        scheduler = null;
+    }
+
+    @Override
+    public synchronized int addNetwork(WifiConfiguration config) {
+        config.networkId = nextNetworkId++;
+        configuredNetworks.add(config);
+        scheduleBroadcast(new Intent(WifiManager.NETWORK_IDS_CHANGED_ACTION));
+        return config.networkId;
+    }
+
+    @Override
+    public synchronized boolean disableNetwork(int netId) {
+        if(findNetwork(netId) == null) return false;
+        if(connectedNetworkId == netId) disconnect();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean disconnect() {
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                disconnectNow();
+            }
+        }, TRANSITION_DELAY);
+
+        return true;
+    }
+
+    @Override
+    public synchronized boolean enableNetwork(final int netId, boolean attemptConnect) {
+        if(findNetwork(netId) == null) return false;
+
+        if(attemptConnect) {
+            schedule(new Runnable() {
+                @Override
+                public void run() {
+                    connectNow(netId);
+                }
+            }, TRANSITION_DELAY);
+        }
+
+        return true;
+    }
+
+    @Override
+    public synchronized List<WifiConfiguration> getConfiguredNetworks() {
+        return new ArrayList<WifiConfiguration>(configuredNetworks);
+    }
+
+    @Override
+    public synchronized WifiInfo getConnectionInfo() {
+        return createWifiInfo();
+    }
+
+    @Override
+    public synchronized DhcpInfo getDhcpInfo() {
+        DhcpInfo dhcpInfo = new DhcpInfo();
+
+        if(connectedAccessPoint != null) {
+            dhcpInfo.ipAddress = 0x6400a8c0;
+            dhcpInfo.gateway = 0x0100a8c0;
+            dhcpInfo.netmask = 0x00ffffff;
+            dhcpInfo.dns1 = 0x0100a8c0;
+            dhcpInfo.serverAddress = 0x0100a8c0;
+            dhcpInfo.leaseDuration = 3600;
+        }
+
+        return dhcpInfo;
+    }
+
+    @Override
+    public synchronized List<ScanResult> getScanResults() {
+        return scanResults;
+    }
+
+    @Override
+    public synchronized int getWifiState() {
+        return wifiState;
+    }
+
+    @Override
+    public boolean isScanAlwaysAvailable() {
+        return false;
+    }
+
+    @Override
+    public synchronized boolean isWifiEnabled() {
+        return wifiState == WifiManager.WIFI_STATE_ENABLED;
+    }
+
+    @Override
+    public synchronized boolean reassociate() {
+        return reconnect();
+    }
+
+    @Override
+    public synchronized boolean reconnect() {
+        if(lastNetworkId < 0) return false;
+        return enableNetwork(lastNetworkId, true);
+    }
+
+    @Override
+    public synchronized boolean removeNetwork(int netId) {
+        WifiConfiguration config = findNetwork(netId);
+        if(config == null) return false;
+
+        if(connectedNetworkId == netId) disconnect();
+        configuredNetworks.remove(config);
+        scheduleBroadcast(new Intent(WifiManager.NETWORK_IDS_CHANGED_ACTION));
+
+        return true;
+    }
+
+    @Override
+    public boolean saveConfiguration() {
+        return true;
+    }
+
+    @Override
+    public boolean setWifiEnabled(final boolean enabled) {
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                changeWifiState(enabled);
+            }
+        }, 0);
+
+        return true;
+    }
+
+    @Override
+    public synchronized boolean startScan() {
+        if(wifiState != WifiManager.WIFI_STATE_ENABLED) return false;
+
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                scan();
+            }
+        }, scanDelay);
+
+        return true;
+    }
+
+    @Override
+    public synchronized int updateNetwork(WifiConfiguration config) {
+        for(int i = 0; i < configuredNetworks.size(); i++) {
+            if(configuredNetworks.get(i).networkId == config.networkId) {
+                configuredNetworks.set(i, config);
+                scheduleBroadcast(new Intent(WifiManager.NETWORK_IDS_CHANGED_ACTION));
+                return config.networkId;
+            }
+        }
+
+        return -1;
+    }
+
+    // Hidden on the platform, looked up through HiddenApi
+
+    public synchronized WifiConfiguration getWifiApConfiguration() {
+        return wifiApConfiguration;
+    }
+
+    public synchronized int getWifiApState() {
+        return wifiApState;
+    }
+
+    public synchronized boolean isWifiApEnabled() {
+        return wifiApState == WIFI_AP_STATE_ENABLED;
+    }
+
+    public synchronized boolean setWifiApConfiguration(WifiConfiguration config) {
+        wifiApConfiguration = config;
+        return true;
+    }
+
+    public synchronized boolean setWifiApEnabled(WifiConfiguration config, final boolean enabled) {
+        if(config != null) wifiApConfiguration = config;
+
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                changeWifiApState(enabled);
+            }
+        }, 0);
+
+        return true;
+    }
+
+    private void scan() {
+        synchronized(this) {
+            if(wifiState != WifiManager.WIFI_STATE_ENABLED) return;
+
+            Iterator<ScanResult> iterator = accessPoints.iterator();
+            int removed = 0;
+
+            while(iterator.hasNext()) {
+                ScanResult accessPoint = iterator.next();
+
+                if(accessPoint != connectedAccessPoint && random.nextDouble() < churn) {
+                    iterator.remove();
+                    removed++;
+                } else {
+                    accessPoint.level = drift(accessPoint.level);
+                }
+            }
+
+            for(int i = 0; i < removed; i++) accessPoints.add(createAccessPoint());
+
+            long timestamp = SystemClock.elapsedRealtime() * 1000;
+            List<ScanResult> results = new ArrayList<ScanResult>(accessPoints.size());
+
+            // Hand out copies, the plugin may hold on to the previous list
+            for(ScanResult accessPoint : accessPoints) {
+                ScanResult scanResult = copy(accessPoint);
+                scanResult.timestamp = timestamp;
+                results.add(scanResult);
+            }
+
+            scanResults = Collections.unmodifiableList(results);
+        }
+
+        Intent intent = new Intent(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION);
+        intent.putExtra(WifiManager.EXTRA_RESULTS_UPDATED, true);
+        dispatch(intent);
+    }
+
+    private void driftRssi() {
+        int rssi;
+
+        synchronized(this) {
+            if(connectedAccessPoint == null) return;
+
+            connectedAccessPoint.level = drift(connectedAccessPoint.level);
+            rssi = connectedAccessPoint.level;
+        }
+
+        Intent intent = new Intent(WifiManager.RSSI_CHANGED_ACTION);
+        intent.putExtra(WifiManager.EXTRA_NEW_RSSI, rssi);
+        dispatch(intent);
+    }
+
+    private void toggleConnection() {
+        int netId;
+
+        synchronized(this) {
+            if(connectedAccessPoint != null) {
+                netId = -1;
+            } else if(!configuredNetworks.isEmpty()) {
+                netId = configuredNetworks.get(random.nextInt(configuredNetworks.size())).networkId;
+            } else {
+                // Nothing to connect to
+                return;
+            }
+        }
+
+        if(netId < 0) disconnectNow();
+        else connectNow(netId);
+    }
+
+    private void connectNow(int netId) {
+        boolean authFailure;
+
+        synchronized(this) {
+            WifiConfiguration config = findNetwork(netId);
+            if(config == null || wifiState != WifiManager.WIFI_STATE_ENABLED) return;
+            if(connectedNetworkId == netId) return;
+
+            authFailure = random.nextDouble() < authFailureRate;
+            lastNetworkId = netId;
+        }
+
+        disconnectNow();
+        dispatchSupplicantState(SupplicantState.ASSOCIATING, false);
+
+        if(authFailure) {
+            dispatchSupplicantState(SupplicantState.DISCONNECTED, true);
+            return;
+        }
+
+        synchronized(this) {
+            WifiConfiguration config = findNetwork(netId);
+            if(config == null) return;
+
+            connectedNetworkId = netId;
+            connectedAccessPoint = findAccessPoint(config.SSID);
+        }
+
+        dispatchSupplicantState(SupplicantState.COMPLETED, false);
+        dispatchNetworkState(NetworkInfo.DetailedState.CONNECTED);
+    }
+
+    private void disconnectNow() {
+        synchronized(this) {
+            if(connectedAccessPoint == null) return;
+
+            connectedAccessPoint = null;
+            connectedNetworkId = -1;
+        }
+
+        dispatchSupplicantState(SupplicantState.DISCONNECTED, false);
+        dispatchNetworkState(NetworkInfo.DetailedState.DISCONNECTED);
+    }
+
+    private void changeWifiState(boolean enabled) {
+        int target = enabled ? WifiManager.WIFI_STATE_ENABLED : WifiManager.WIFI_STATE_DISABLED;
+        int transition = enabled ? WifiManager.WIFI_STATE_ENABLING : WifiManager.WIFI_STATE_DISABLING;
+        int previous;
+
+        synchronized(this) {
+            previous = wifiState;
+            if(previous == target) return;
+            wifiState = transition;
+        }
+
+        dispatchWifiState(transition, previous);
+        if(!enabled) disconnectNow();
+
+        synchronized(this) {
+            wifiState = target;
+            if(!enabled) scanResults = Collections.emptyList();
+        }
+
+        dispatchWifiState(target, transition);
+        if(enabled) scan();
+    }
+
+    private void changeWifiApState(boolean enabled) {
+        int target = enabled ? WIFI_AP_STATE_ENABLED : WIFI_AP_STATE_DISABLED;
+        int transition = enabled ? WIFI_AP_STATE_ENABLING : WIFI_AP_STATE_DISABLING;
+        int previous;
+
+        synchronized(this) {
+            previous = wifiApState;
+            if(previous == target) return;
+            wifiApState = target;
+        }
+
+        dispatchWifiApState(transition, previous);
+        dispatchWifiApState(target, transition);
+    }
+
+    private void dispatchSupplicantState(SupplicantState state, boolean authFailure) {
+        Intent intent = new Intent(WifiManager.SUPPLICANT_STATE_CHANGED_ACTION);
+        intent.putExtra(WifiManager.EXTRA_NEW_STATE, state);
+        if(authFailure) intent.putExtra(WifiManager.EXTRA_SUPPLICANT_ERROR, WifiManager.ERROR_AUTHENTICATING);
+        dispatch(intent);
+    }
+
+    private void dispatchNetworkState(NetworkInfo.DetailedState state) {
+        Intent intent = new Intent(WifiManager.NETWORK_STATE_CHANGED_ACTION);
+        NetworkInfo networkInfo = createNetworkInfo(state);
+        WifiInfo wifiInfo;
+        String bssid;
+
+        synchronized(this) {
+            wifiInfo = connectedAccessPoint == null ? null : createWifiInfo();
+            bssid = connectedAccessPoint == null ? null : connectedAccessPoint.BSSID;
+        }
+
+        if(networkInfo != null) intent.putExtra(WifiManager.EXTRA_NETWORK_INFO, networkInfo);
+        if(wifiInfo != null) intent.putExtra(WifiManager.EXTRA_WIFI_INFO, wifiInfo);
+        if(bssid != null) intent.putExtra(WifiManager.EXTRA_BSSID, bssid);
+        dispatch(intent);
+    }
+
+    private void dispatchWifiState(int state, int previous) {
+        Intent intent = new Intent(WifiManager.WIFI_STATE_CHANGED_ACTION);
+        intent.putExtra(WifiManager.EXTRA_WIFI_STATE, state);
+        intent.putExtra(WifiManager.EXTRA_PREVIOUS_WIFI_STATE, previous);
+        dispatch(intent);
+    }
+
+    private void dispatchWifiApState(int state, int previous) {
+        Intent intent = new Intent(WIFI_AP_STATE_CHANGED_ACTION);
+        intent.putExtra(EXTRA_WIFI_AP_STATE, state);
+        intent.putExtra(EXTRA_PREVIOUS_WIFI_AP_STATE, previous);
+        dispatch(intent);
+    }
+
+    private void dispatch(Intent intent) {
+        BroadcastRegistration registration = this.registration;
+        if(registration != null) registration.dispatch(intent);
+    }
+
+    private void scheduleBroadcast(final Intent intent) {
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                dispatch(intent);
+            }
+        }, 0);
+    }
+
+    private synchronized void schedule(Runnable runnable, long delay) {
+        if(scheduler != null) scheduler.schedule(runnable, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduleAtFixedRate(Runnable runnable, long interval) {
+        scheduler.scheduleAtFixedRate(runnable, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private WifiConfiguration findNetwork(int netId) {
+        for(WifiConfiguration config : configuredNetworks) {
+            if(config.networkId == netId) return config;
+        }
+
+        return null;
+    }
+
+    private ScanResult findAccessPoint(String ssid) {
+        String unquoted = ssid != null && ssid.length() > 1 && ssid.startsWith("\"") && ssid.endsWith("\"") ?
+                ssid.substring(1, ssid.length() - 1) : ssid;
+
+        for(ScanResult accessPoint : accessPoints) {
+            if(accessPoint.SSID.equals(unquoted)) return accessPoint;
+        }
+
+        // Make the network show up in the scan results from now on
+        ScanResult accessPoint = createAccessPoint();
+        if(unquoted != null) accessPoint.SSID = unquoted;
+        accessPoints.add(accessPoint);
+
+        return accessPoint;
+    }
+
+    private ScanResult createAccessPoint() {
+        int id = nextAccessPoint++;
+        boolean band5 = random.nextInt(3) == 0;
+
+        ScanResult accessPoint = new ScanResult();
+        accessPoint.BSSID = String.format("02:%02x:%02x:%02x:%02x:%02x", random.nextInt(256), random.nextInt(256),
+                (id >> 16) & 0xff, (id >> 8) & 0xff, id & 0xff);
+        accessPoint.SSID = "sim-" + id;
+        accessPoint.capabilities = CAPABILITIES[random.nextInt(CAPABILITIES.length)];
+        accessPoint.frequency = band5 ? 5180 + 20 * random.nextInt(8) : 2412 + 5 * random.nextInt(13);
+        accessPoint.channelWidth = band5 ? ScanResult.CHANNEL_WIDTH_80MHZ : ScanResult.CHANNEL_WIDTH_20MHZ;
+        accessPoint.centerFreq0 = accessPoint.frequency;
+        accessPoint.level = MIN_LEVEL + random.nextInt(MAX_LEVEL - MIN_LEVEL + 1);
+
+        return accessPoint;
+    }
+
+    private int drift(int level) {
+        if(rssiDrift <= 0) return level;
+
+        int next = level + random.nextInt(2 * rssiDrift + 1) - rssiDrift;
+        return Math.max(MIN_LEVEL, Math.min(MAX_LEVEL, next));
+    }
+
+    private static ScanResult copy(ScanResult accessPoint) {
+        ScanResult scanResult = new ScanResult();
+        scanResult.BSSID = accessPoint.BSSID;
+        scanResult.SSID = accessPoint.SSID;
+        scanResult.capabilities = accessPoint.capabilities;
+        scanResult.frequency = accessPoint.frequency;
+        scanResult.channelWidth = accessPoint.channelWidth;
+        scanResult.centerFreq0 = accessPoint.centerFreq0;
+        scanResult.centerFreq1 = accessPoint.centerFreq1;
+        scanResult.level = accessPoint.level;
+        return scanResult;
+    }
+
+    // WifiInfo and NetworkInfo have no public constructors, they are
+    // created and filled in through their hidden members
+
+    private WifiInfo createWifiInfo() {
+        WifiInfo wifiInfo = newInstance(WifiInfo.class, new Class<?>[] {});
+        if(wifiInfo == null) return null;
+
+        ScanResult accessPoint = connectedAccessPoint;
+
+        if(accessPoint != null) {
+            setSSID(wifiInfo, accessPoint.SSID);
+            invoke(wifiInfo, "setBSSID", String.class, accessPoint.BSSID);
+            invoke(wifiInfo, "setFrequency", int.class, accessPoint.frequency);
+            invoke(wifiInfo, "setLinkSpeed", int.class, 72);
+            invoke(wifiInfo, "setNetworkId", int.class, connectedNetworkId);
+            invoke(wifiInfo, "setRssi", int.class, accessPoint.level);
+            invoke(wifiInfo, "setSupplicantState", SupplicantState.class, SupplicantState.COMPLETED);
+        } else {
+            invoke(wifiInfo, "setSupplicantState", SupplicantState.class, SupplicantState.DISCONNECTED);
+        }
+
+        return wifiInfo;
+    }
+
+    private static NetworkInfo createNetworkInfo(NetworkInfo.DetailedState state) {
+        NetworkInfo networkInfo = newInstance(NetworkInfo.class,
+                new Class<?>[] { int.class, int.class, String.class, String.class },
+                ConnectivityManager.TYPE_WIFI, 0, "WIFI", "");
+
+        if(networkInfo != null) networkInfo.setDetailedState(state, null, null);
+        return networkInfo;
+    }
+
+    /**
+     * Sets the unquoted SSID, getSSID returns it quoted like the platform.
+     */
+    private static void setSSID(WifiInfo wifiInfo, String ssid) {
+        if(invoke(wifiInfo, "setSSID", String.class, "\"" + ssid + "\"")) return;
+
+        // Newer platform versions take a WifiSsid, which getSSID quotes
+        try {
+            Class<?> wifiSsid = Class.forName("android.net.wifi.WifiSsid");
+            Object value = wifiSsid.getMethod("createFromAsciiEncoded", String.class).invoke(null, ssid);
+            invoke(wifiInfo, "setSSID", wifiSsid, value);
+        } catch(Exception e) {
+            // Leave the SSID unknown
+        }
+    }
+
+    private static <T> T newInstance(Class<T> klass, Class<?>[] types, Object... args) {
+        try {
+            Constructor<T> constructor = klass.getDeclaredConstructor(types);
+            constructor.setAccessible(true);
+            return constructor.newInstance(args);
+        } catch(Exception e) {
+            return null;
+        }
+    }
+
+    private static boolean invoke(Object target, String name, Class<?> type, Object arg) {
+        try {
+            Method method = target.getClass().getDeclaredMethod(name, type);
+            method.setAccessible(true);
+            method.invoke(target, arg);
+            return true;
+        } catch(Exception e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package dk.kapetanovic.wifimanager;
+
+import android.net.DhcpInfo;
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiConfiguration;
+import android.net.wifi.WifiInfo;
+
+import java.util.List;
+
+/**
+ * Measures the time spent in every backend call, i.e. the binder calls to
+ * the platform WifiManager, so PluginStats can tell it apart from building
+ * the result. Calls to the hidden API go through the target directly and
+ * are not measured.
+ */
+class TimedWifiBackend implements WifiBackend {
+    private final WifiBackend backend;
+    private final PluginStats stats;
+
+    TimedWifiBackend(WifiBackend backend, PluginStats stats) {
+        this.backend = backend;
+        this.stats = stats;
+    }
+
+    @Override
+    public Object getHiddenApiTarget() {
+        return backend.getHiddenApiTarget();
+    }
+
+    @Override
+    public void start(BroadcastRegistration registration) {
+        backend.start(registration);
+    }
+
+    @Override
+    public void stop() {
+        backend.stop();
+    }
+
+    @Override
+    public int addNetwork(WifiConfiguration config) {
+        long start = System.nanoTime();
+
+        try {
+            return backend.addNetwork(config);
+        } finally {
+            stats.recordBackend(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean disableNetwork(int netId) {
+        long start = System.nanoTime();
+
+        try {
+            return backend.disableNetwork(netId);
+        } finally {
+            stats.recordBackend(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean disconnect() {
+        long start = System.nanoTime();
+
+        try {
+            return backend.disconnect();
+        } finally {
+            stats.recordBackend(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean enableNetwork(int netId, boolean attemptConnect) {
+        long start = System.nanoTime();
+
+        try {
+            return backend.enableNetwork(netId, attemptConnect);
+        } finally {
+            stats.recordBackend(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<WifiConfiguration> getConfiguredNetworks() {
+        long start = System.nanoTime();
+
+        try {
+            return backend.getConfiguredNetworks();
+        } finally {
+            stats.recordBackend(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public WifiInfo getConnectionInfo() {
+        long start = System.nanoTime();
+
+        try {
+            return backend.getConnectionInfo();
+        } finally {
+            stats.recordBackend(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public DhcpInfo getDhcpInfo() {
+        long start = System.nanoTime();
+
+        try {
+            return backend.getDhcpInfo();
+        } finally {
+            stats.recordBackend(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<ScanResult> getScanResults() {
+        long start = System.nanoTime();
+
+        try {
+            return backend.getScanResults();
+        } finally {
+            stats.recordBackend(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int getWifiState() {
+        long start = System.nanoTime();
+
+        try {
+            return backend.getWifiState();
+        } finally {
+            stats.recordBackend(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean isScanAlwaysAvailable() {
+        long start = System.nanoTime();
+
+        try {
+            return backend.isScanAlwaysAvailable();
+        } finally {
+            stats.recordBackend(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean isWifiEnabled() {
+        long start = System.nanoTime();
+
+        try {
+            return backend.isWifiEnabled();
+        } finally {
+            stats.recordBackend(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean reassociate() {
+        long start = System.nanoTime();
+
+        try {
+            return backend.reassociate();
+        } finally {
+            stats.recordBackend(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean reconnect() {
+        long start = System.nanoTime();
+
+        try {
+            return backend.reconnect();
+        } finally {
+            stats.recordBackend(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean removeNetwork(int netId) {
+        long start = System.nanoTime();
+
+        try {
+            return backend.removeNetwork(netId);
+        } finally {
+            stats.recordBackend(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean saveConfiguration() {
+        long start = System.nanoTime();
+
+        try {
+            return backend.saveConfiguration();
+        } finally {
+            stats.recordBackend(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean setWifiEnabled(boolean enabled) {
+        long start = System.nanoTime();
+
+        try {
+            return backend.setWifiEnabled(enabled);
+        } finally {
+            stats.recordBackend(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean startScan() {
+        long start = System.nanoTime();
+
+        try {
+            return backend.startScan();
+        } finally {
+            stats.recordBackend(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int updateNetwork(WifiConfiguration config) {
+        long start = System.nanoTime();
+
+        try {
+            return backend.updateNetwork(config);
+        } finally {
+            stats.recordBackend(System.nanoTime() - start);
+        }
+    }
+}
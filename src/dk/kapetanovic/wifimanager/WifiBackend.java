@@ -0,0 +1,47 @@
+package dk.kapetanovic.wifimanager;
+
+import android.net.DhcpInfo;
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiConfiguration;
+import android.net.wifi.WifiInfo;
+
+import java.util.List;
+
+/**
+ * The WifiManager calls the plugin makes. Implemented by the platform
+ * WifiManager and by a simulator for load testing without a device.
+ */
+interface WifiBackend {
+    /**
+     * The object the undocumented WifiManager methods and constants are
+     * looked up on, see HiddenApi.
+     */
+    Object getHiddenApiTarget();
+
+    /**
+     * Called once the receiver is set up. Backends that produce their own
+     * broadcasts deliver them through the registration.
+     */
+    void start(BroadcastRegistration registration);
+
+    void stop();
+
+    int addNetwork(WifiConfiguration config);
+    boolean disableNetwork(int netId);
+    boolean disconnect();
+    boolean enableNetwork(int netId, boolean attemptConnect);
+    List<WifiConfiguration> getConfiguredNetworks();
+    WifiInfo getConnectionInfo();
+    DhcpInfo getDhcpInfo();
+    List<ScanResult> getScanResults();
+    int getWifiState();
+    boolean isScanAlwaysAvailable();
+    boolean isWifiEnabled();
+    boolean reassociate();
+    boolean reconnect();
+    boolean removeNetwork(int netId);
+    boolean saveConfiguration();
+    boolean setWifiEnabled(boolean enabled);
+    boolean startScan();
+    int updateNetwork(WifiConfiguration config);
+}
@@ -0,0 +1,342 @@
+package dk.kapetanovic.wifimanager;
+
+import android.net.wifi.WifiConfiguration;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decodes WifiConfiguration objects, either in one streaming pass over the
+ * raw action arguments or from an already parsed JSONObject. Both follow the
+ * same rules: null or missing properties are skipped and any non-null value
+ * in one of the allowed* objects sets the corresponding bit.
+ */
+class WifiConfigurationDecoder {
+    private static abstract class BitSetField {
+        final String name;
+        final String[] keys;
+        final int[] bits;
+
+        BitSetField(String name, String[] keys, int[] bits) {
+            this.name = name;
+            this.keys = keys;
+            this.bits = bits;
+        }
+
+        abstract BitSet get(WifiConfiguration wifiConfig);
+
+        int getBit(String key) {
+            for(int i = 0; i < keys.length; i++) {
+                if(keys[i].equals(key)) return bits[i];
+            }
+
+            return -1;
+        }
+    }
+
+    private static final BitSetField[] BIT_SET_FIELDS = {
+            new BitSetField("allowedAuthAlgorithms",
+                    new String[] { "LEAP", "OPEN", "SHARED" },
+                    new int[] {
+                            WifiConfiguration.AuthAlgorithm.LEAP,
+                            WifiConfiguration.AuthAlgorithm.OPEN,
+                            WifiConfiguration.AuthAlgorithm.SHARED }) {
+                @Override
+                BitSet get(WifiConfiguration wifiConfig) {
+                    return wifiConfig.allowedAuthAlgorithms;
+                }
+            },
+            new BitSetField("allowedGroupCiphers",
+                    new String[] { "CCMP", "TKIP", "WEP104", "WEP40" },
+                    new int[] {
+                            WifiConfiguration.GroupCipher.CCMP,
+                            WifiConfiguration.GroupCipher.TKIP,
+                            WifiConfiguration.GroupCipher.WEP104,
+                            WifiConfiguration.GroupCipher.WEP40 }) {
+                @Override
+                BitSet get(WifiConfiguration wifiConfig) {
+                    return wifiConfig.allowedGroupCiphers;
+                }
+            },
+            new BitSetField("allowedKeyManagement",
+                    new String[] { "IEEE8021X", "NONE", "WPA_EAP", "WPA_PSK" },
+                    new int[] {
+                            WifiConfiguration.KeyMgmt.IEEE8021X,
+                            WifiConfiguration.KeyMgmt.NONE,
+                            WifiConfiguration.KeyMgmt.WPA_EAP,
+                            WifiConfiguration.KeyMgmt.WPA_PSK }) {
+                @Override
+                BitSet get(WifiConfiguration wifiConfig) {
+                    return wifiConfig.allowedKeyManagement;
+                }
+            },
+            new BitSetField("allowedPairwiseCiphers",
+                    new String[] { "CCMP", "NONE", "TKIP" },
+                    new int[] {
+                            WifiConfiguration.PairwiseCipher.CCMP,
+                            WifiConfiguration.PairwiseCipher.NONE,
+                            WifiConfiguration.PairwiseCipher.TKIP }) {
+                @Override
+                BitSet get(WifiConfiguration wifiConfig) {
+                    return wifiConfig.allowedPairwiseCiphers;
+                }
+            },
+            new BitSetField("allowedProtocols",
+                    new String[] { "RSN", "WPA" },
+                    new int[] {
+                            WifiConfiguration.Protocol.RSN,
+                            WifiConfiguration.Protocol.WPA }) {
+                @Override
+                BitSet get(WifiConfiguration wifiConfig) {
+                    return wifiConfig.allowedProtocols;
+                }
+            }
+    };
+
+    private static final Map<String, BitSetField> BIT_SET_FIELDS_BY_NAME = new HashMap<String, BitSetField>();
+
+    static {
+        for(BitSetField field : BIT_SET_FIELDS) BIT_SET_FIELDS_BY_NAME.put(field.name, field);
+    }
+
+    /**
+     * Reads the arguments of an action whose first argument is a
+     * configuration or an array of configurations. Configurations are
+     * decoded in place, the remaining arguments are added as regular JSON
+     * values.
+     */
+    static JSONArray readArgs(String rawArgs) throws JSONException {
+        JsonReader reader = new JsonReader(new StringReader(rawArgs));
+        JSONArray args = new JSONArray();
+
+        try {
+            reader.beginArray();
+
+            if(reader.hasNext()) {
+                if(reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    args.put(read(reader));
+                } else if(reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    JSONArray configs = new JSONArray();
+                    reader.beginArray();
+
+                    while(reader.hasNext()) {
+                        if(reader.peek() == JsonToken.BEGIN_OBJECT) configs.put(read(reader));
+                        else configs.put(readValue(reader));
+                    }
+
+                    reader.endArray();
+                    args.put(configs);
+                } else {
+                    args.put(readValue(reader));
+                }
+            }
+
+            while(reader.hasNext()) args.put(readValue(reader));
+
+            reader.endArray();
+        } catch(IOException e) {
+            throw new JSONException(e.getMessage());
+        } catch(IllegalStateException e) {
+            throw new JSONException(e.getMessage());
+        } catch(NumberFormatException e) {
+            throw new JSONException(e.getMessage());
+        }
+
+        return args;
+    }
+
+    static WifiConfiguration read(JsonReader reader) throws IOException, JSONException {
+        WifiConfiguration wifiConfig = new WifiConfiguration();
+
+        reader.beginObject();
+
+        while(reader.hasNext()) {
+            String name = reader.nextName();
+
+            if(reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+
+            BitSetField bitSetField = BIT_SET_FIELDS_BY_NAME.get(name);
+
+            if(bitSetField != null) {
+                BitSet bitSet = bitSetField.get(wifiConfig);
+                bitSet.clear();
+                reader.beginObject();
+
+                while(reader.hasNext()) {
+                    int bit = bitSetField.getBit(reader.nextName());
+
+                    if(reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                    } else {
+                        reader.skipValue();
+                        if(bit >= 0) bitSet.set(bit);
+                    }
+                }
+
+                reader.endObject();
+            } else if(name.equals("BSSID")) {
+                wifiConfig.BSSID = readString(reader);
+            } else if(name.equals("SSID")) {
+                wifiConfig.SSID = readString(reader);
+            } else if(name.equals("hiddenSSID")) {
+                wifiConfig.hiddenSSID = readBoolean(reader);
+            } else if(name.equals("networkId")) {
+                wifiConfig.networkId = readInt(reader);
+            } else if(name.equals("preSharedKey")) {
+                wifiConfig.preSharedKey = readString(reader);
+            } else if(name.equals("status")) {
+                wifiConfig.status = fromStringStatus(readString(reader));
+            } else if(name.equals("wepKeys")) {
+                Arrays.fill(wifiConfig.wepKeys, null);
+                reader.beginArray();
+
+                for(int i = 0; reader.hasNext(); i++) {
+                    if(i >= wifiConfig.wepKeys.length) reader.skipValue();
+                    else if(reader.peek() == JsonToken.NULL) reader.nextNull();
+                    else wifiConfig.wepKeys[i] = readString(reader);
+                }
+
+                reader.endArray();
+            } else if(name.equals("wepTxKeyIndex")) {
+                wifiConfig.wepTxKeyIndex = readInt(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+
+        reader.endObject();
+
+        return wifiConfig;
+    }
+
+    static WifiConfiguration fromJSON(JSONObject json) throws JSONException {
+        WifiConfiguration wifiConfig = new WifiConfiguration();
+
+        if(!json.isNull("BSSID")) wifiConfig.BSSID = json.getString("BSSID");
+        if(!json.isNull("SSID")) wifiConfig.SSID = json.getString("SSID");
+
+        for(BitSetField field : BIT_SET_FIELDS) {
+            if(json.isNull(field.name)) continue;
+
+            JSONObject flags = json.getJSONObject(field.name);
+
+            for(int i = 0; i < field.keys.length; i++) {
+                if(!flags.isNull(field.keys[i])) field.get(wifiConfig).set(field.bits[i]);
+            }
+        }
+
+        if(!json.isNull("hiddenSSID")) wifiConfig.hiddenSSID = json.getBoolean("hiddenSSID");
+        if(!json.isNull("networkId")) wifiConfig.networkId = json.getInt("networkId");
+        if(!json.isNull("preSharedKey")) wifiConfig.preSharedKey = json.getString("preSharedKey");
+        if(!json.isNull("status")) wifiConfig.status = fromStringStatus(json.getString("status"));
+
+        if(!json.isNull("wepKeys")) {
+            JSONArray wepKeys = json.getJSONArray("wepKeys");
+
+            for(int i = 0; i < wifiConfig.wepKeys.length; i++) {
+                if(!wepKeys.isNull(i)) wifiConfig.wepKeys[i] = wepKeys.getString(i);
+            }
+        }
+
+        if(!json.isNull("wepTxKeyIndex")) wifiConfig.wepTxKeyIndex = json.getInt("wepTxKeyIndex");
+
+        return wifiConfig;
+    }
+
+    private static int fromStringStatus(String status) {
+        if(status.equals("CURRENT")) return WifiConfiguration.Status.CURRENT;
+        if(status.equals("DISABLED")) return WifiConfiguration.Status.DISABLED;
+        if(status.equals("ENABLED")) return WifiConfiguration.Status.ENABLED;
+        return -1;
+    }
+
+    // The readers below coerce values the same way Android's org.json does.
+    // A number read as a string is the parsed number, e.g. 100.0 for 1e2.
+
+    private static String readString(JsonReader reader) throws IOException, JSONException {
+        switch(reader.peek()) {
+            case STRING: return reader.nextString();
+            case NUMBER: return readNumber(reader.nextString()).toString();
+            case BOOLEAN: return String.valueOf(reader.nextBoolean());
+            default: throw new JSONException("Expected a string but was " + reader.peek());
+        }
+    }
+
+    private static boolean readBoolean(JsonReader reader) throws IOException, JSONException {
+        if(reader.peek() == JsonToken.BOOLEAN) return reader.nextBoolean();
+
+        if(reader.peek() == JsonToken.STRING) {
+            String value = reader.nextString();
+            if(value.equalsIgnoreCase("true")) return true;
+            if(value.equalsIgnoreCase("false")) return false;
+        }
+
+        throw new JSONException("Expected a boolean");
+    }
+
+    private static int readInt(JsonReader reader) throws IOException, JSONException {
+        JsonToken token = reader.peek();
+
+        if(token != JsonToken.NUMBER && token != JsonToken.STRING) {
+            throw new JSONException("Expected an int but was " + token);
+        }
+
+        String value = reader.nextString();
+
+        try {
+            return (int) Long.parseLong(value);
+        } catch(NumberFormatException e) {
+            return (int) Double.parseDouble(value);
+        }
+    }
+
+    private static Object readValue(JsonReader reader) throws IOException, JSONException {
+        switch(reader.peek()) {
+            case BEGIN_ARRAY: {
+                JSONArray json = new JSONArray();
+                reader.beginArray();
+                while(reader.hasNext()) json.put(readValue(reader));
+                reader.endArray();
+                return json;
+            }
+            case BEGIN_OBJECT: {
+                JSONObject json = new JSONObject();
+                reader.beginObject();
+                while(reader.hasNext()) json.put(reader.nextName(), readValue(reader));
+                reader.endObject();
+                return json;
+            }
+            case BOOLEAN: return reader.nextBoolean();
+            case NUMBER: return readNumber(reader.nextString());
+            case STRING: return reader.nextString();
+            case NULL: {
+                reader.nextNull();
+                return JSONObject.NULL;
+            }
+            default: throw new JSONException("Unexpected " + reader.peek());
+        }
+    }
+
+    private static Object readNumber(String value) {
+        try {
+            long number = Long.parseLong(value);
+            if((int) number == number) return (int) number;
+            return number;
+        } catch(NumberFormatException e) {
+            return Double.parseDouble(value);
+        }
+    }
+}
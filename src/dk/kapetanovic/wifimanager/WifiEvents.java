@@ -0,0 +1,62 @@
+package dk.kapetanovic.wifimanager;
+
+import android.net.wifi.WifiManager;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Names of the events sent to JavaScript and the broadcast actions they
+ * correspond to.
+ */
+class WifiEvents {
+    static final String NETWORK_IDS_CHANGED = "NETWORK_IDS_CHANGED";
+    static final String NETWORK_STATE_CHANGED = "NETWORK_STATE_CHANGED";
+    static final String RSSI_CHANGED = "RSSI_CHANGED";
+    static final String SCAN_RESULTS_AVAILABLE = "SCAN_RESULTS_AVAILABLE";
+    static final String SUPPLICANT_CONNECTION_CHANGE = "SUPPLICANT_CONNECTION_CHANGE";
+    static final String SUPPLICANT_STATE_CHANGED = "SUPPLICANT_STATE_CHANGED";
+    static final String WIFI_STATE_CHANGED = "WIFI_STATE_CHANGED";
+    static final String WIFI_AP_STATE_CHANGED = "WIFI_AP_STATE_CHANGED";
+
+    private final Map<String, String> actions = new LinkedHashMap<String, String>();
+    private final Map<String, String> events = new LinkedHashMap<String, String>();
+
+    WifiEvents(String wifiApStateChangedAction) {
+        put(NETWORK_IDS_CHANGED, WifiManager.NETWORK_IDS_CHANGED_ACTION);
+        put(NETWORK_STATE_CHANGED, WifiManager.NETWORK_STATE_CHANGED_ACTION);
+        put(RSSI_CHANGED, WifiManager.RSSI_CHANGED_ACTION);
+        put(SCAN_RESULTS_AVAILABLE, WifiManager.SCAN_RESULTS_AVAILABLE_ACTION);
+        put(SUPPLICANT_CONNECTION_CHANGE, WifiManager.SUPPLICANT_CONNECTION_CHANGE_ACTION);
+        put(SUPPLICANT_STATE_CHANGED, WifiManager.SUPPLICANT_STATE_CHANGED_ACTION);
+        put(WIFI_STATE_CHANGED, WifiManager.WIFI_STATE_CHANGED_ACTION);
+        if(wifiApStateChangedAction != null) put(WIFI_AP_STATE_CHANGED, wifiApStateChangedAction);
+    }
+
+    /**
+     * Event names are matched the same way www/index.js derives the callback
+     * names, so RSSI_CHANGED and rssichanged refer to the same event.
+     */
+    static String normalize(String event) {
+        return event.replace("_", "").toLowerCase(Locale.US);
+    }
+
+    String getAction(String event) {
+        return actions.get(normalize(event));
+    }
+
+    String getEvent(String action) {
+        return events.get(action);
+    }
+
+    Map<String, String> getActions() {
+        return Collections.unmodifiableMap(actions);
+    }
+
+    private void put(String event, String action) {
+        actions.put(normalize(event), action);
+        events.put(action, event);
+    }
+}
@@ -4,8 +4,6 @@ import android.Manifest;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
-import android.content.pm.PackageManager;
 import android.net.DhcpInfo;
 import android.net.NetworkInfo;
 import android.net.wifi.ScanResult;
@@ -14,8 +12,10 @@ import android.net.wifi.WifiConfiguration;
 import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
 import android.net.ConnectivityManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.provider.Settings;
-import android.text.TextUtils;
 
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaInterface;
@@ -26,174 +26,455 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.lang.reflect.Field;
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 
 public class WifiManagerPlugin extends CordovaPlugin {
     private static final String ACCESS_COARSE_LOCATION = Manifest.permission.ACCESS_COARSE_LOCATION;
     private static final String ACCESS_FINE_LOCATION = Manifest.permission.ACCESS_FINE_LOCATION;
     private static final String ACTION_MANAGE_WRITE_SETTINGS = Settings.ACTION_MANAGE_WRITE_SETTINGS;
-
-    private static final String WIFI_AP_STATE_CHANGED_ACTION = getStringField("WIFI_AP_STATE_CHANGED_ACTION");
-    private static final String EXTRA_WIFI_AP_STATE = getStringField("EXTRA_WIFI_AP_STATE");
-    private static final String EXTRA_PREVIOUS_WIFI_AP_STATE = getStringField("EXTRA_PREVIOUS_WIFI_AP_STATE");
-
-    private static final int WIFI_AP_STATE_DISABLED = getIntField("WIFI_AP_STATE_DISABLED");
-    private static final int WIFI_AP_STATE_DISABLING = getIntField("WIFI_AP_STATE_DISABLING");
-    private static final int WIFI_AP_STATE_ENABLED = getIntField("WIFI_AP_STATE_ENABLED");
-    private static final int WIFI_AP_STATE_ENABLING = getIntField("WIFI_AP_STATE_ENABLING");
-    private static final int WIFI_AP_STATE_FAILED = getIntField("WIFI_AP_STATE_FAILED");
+    private static final String WRITE_SETTINGS = "WRITE_SETTINGS";
 
     private static final int REQUEST_CODE_SCAN_RESULTS = 0;
     private static final int REQUEST_CODE_WIFI_AP_ENABLE = 1;
 
+    private static final String ACTION_ADD_LISTENER = "addListener";
     private static final String ACTION_ADD_NETWORK = "addNetwork";
+    private static final String ACTION_ADD_NETWORKS = "addNetworks";
+    private static final String ACTION_BATCH = "batch";
+    private static final String ACTION_CONNECT = "connect";
+    private static final String ACTION_COMPACT_SCAN_HISTORY = "compactScanHistory";
     private static final String ACTION_DISABLE_NETWORK = "disableNetwork";
     private static final String ACTION_DISCONNECT = "disconnect";
     private static final String ACTION_ENABLE_NETWORK = "enableNetwork";
+    private static final String ACTION_FIND_NETWORK = "findNetwork";
+    private static final String ACTION_GET_CAPABILITIES = "getCapabilities";
     private static final String ACTION_GET_CONFIGURATION_NETWORKS = "getConfiguredNetworks";
     private static final String ACTION_GET_CONNECTION_INFO = "getConnectionInfo";
     private static final String ACTION_GET_DHCP_INFO = "getDhcpInfo";
+    private static final String ACTION_GET_LINK_STATS = "getLinkStats";
+    private static final String ACTION_GET_NETWORK = "getNetwork";
+    private static final String ACTION_GET_PLUGIN_STATS = "getPluginStats";
     private static final String ACTION_GET_SCAN_RESULTS = "getScanResults";
+    private static final String ACTION_GET_SCAN_RESULTS_SINCE = "getScanResultsSince";
+    private static final String ACTION_GET_SNAPSHOT = "getSnapshot";
     private static final String ACTION_GET_WIFI_AP_CONFIGURATION = "getWifiApConfiguration";
     private static final String ACTION_GET_WIFI_AP_STATE = "getWifiApState";
     private static final String ACTION_GET_WIFI_STATE = "getWifiState";
     private static final String ACTION_IS_SCAN_ALWAYS_AVAILABLE = "isScanAlwaysAvailable";
     private static final String ACTION_IS_WIFI_AP_ENABLED = "isWifiApEnabled";
     private static final String ACTION_IS_WIFI_ENABLED = "isWifiEnabled";
+    private static final String ACTION_QUERY_SCAN_HISTORY = "queryScanHistory";
     private static final String ACTION_REASSOCIATE = "reassociate";
     private static final String ACTION_RECONNECT = "reconnect";
+    private static final String ACTION_REMOVE_LISTENER = "removeListener";
     private static final String ACTION_REMOVE_NETWORK = "removeNetwork";
+    private static final String ACTION_RESET_PLUGIN_STATS = "resetPluginStats";
     private static final String ACTION_SAVE_CONFIGURATION = "saveConfiguration";
+    private static final String ACTION_SCAN_AND_WAIT = "scanAndWait";
+    private static final String ACTION_SET_EVENT_OPTIONS = "setEventOptions";
+    private static final String ACTION_SET_EVENT_THROTTLE = "setEventThrottle";
     private static final String ACTION_SET_WIFI_AP_CONFIGURATION = "setWifiApConfiguration";
     private static final String ACTION_SET_WIFI_AP_ENABLED = "setWifiApEnabled";
     private static final String ACTION_SET_WIFI_ENABLED = "setWifiEnabled";
+    private static final String ACTION_START_LINK_SAMPLING = "startLinkSampling";
+    private static final String ACTION_START_PERIODIC_SCAN = "startPeriodicScan";
     private static final String ACTION_START_SCAN = "startScan";
+    private static final String ACTION_START_SCAN_HISTORY = "startScanHistory";
+    private static final String ACTION_STOP_LINK_SAMPLING = "stopLinkSampling";
+    private static final String ACTION_STOP_PERIODIC_SCAN = "stopPeriodicScan";
+    private static final String ACTION_STOP_SCAN_HISTORY = "stopScanHistory";
+    private static final String ACTION_STREAM_CONFIGURED_NETWORKS = "streamConfiguredNetworks";
+    private static final String ACTION_STREAM_SCAN_RESULTS = "streamScanResults";
+    private static final String ACTION_SUBSCRIBE = "subscribe";
+    private static final String ACTION_UNSUBSCRIBE = "unsubscribe";
     private static final String ACTION_UPDATE_NETWORK = "updateNetwork";
     private static final String ACTION_ON_CHANGE = "onChange";
 
-    private WifiManager wifiManager;
+    private static final String PREFERENCE_EXECUTION_POLICY = "WifiManagerExecutionPolicy";
+    private static final String PREFERENCE_SCAN_RESULTS_MAX_AGE = "WifiManagerScanResultsMaxAge";
+    private static final String PREFERENCE_BROADCAST_THREAD = "WifiManagerBroadcastThread";
+    private static final String PREFERENCE_BACKEND = "WifiManagerBackend";
+    private static final String PREFERENCE_SCAN_BUDGET = "WifiManagerScanBudget";
+    private static final String PREFERENCE_SCAN_BUDGET_WINDOW = "WifiManagerScanBudgetWindow";
+    private static final String PREFERENCE_SIMULATOR = "WifiManagerSimulator";
+
+    private static final int DEFAULT_SCAN_RESULTS_MAX_AGE = 30000;
+    // Matches the platform's throttling of foreground apps
+    private static final int DEFAULT_SCAN_BUDGET = 4;
+    private static final int DEFAULT_SCAN_BUDGET_WINDOW = 120000;
+    private static final long DEFAULT_SCAN_TIMEOUT = 30000;
+    private static final long DEFAULT_PERIODIC_SCAN_INTERVAL = 30000;
+    private static final long DEFAULT_CONNECT_TIMEOUT = 30000;
+    private static final int LINK_SAMPLE_CAPACITY = 1024;
+    private static final int DEFAULT_SCAN_HISTORY_LIMIT = 1000;
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final String SCAN_HISTORY_DIRECTORY = "wifimanager-scan-history";
+
+    private static final String FORMAT_JSON = "json";
+    private static final String FORMAT_BINARY = "binary";
+
+    private static final String SECTION_CONNECTION_INFO = "connectionInfo";
+    private static final String SECTION_DHCP_INFO = "dhcpInfo";
+    private static final String SECTION_SCAN_ALWAYS_AVAILABLE = "scanAlwaysAvailable";
+    private static final String SECTION_SCAN_RESULTS = "scanResults";
+    private static final String SECTION_WIFI_AP_STATE = "wifiApState";
+    private static final String SECTION_WIFI_STATE = "wifiState";
+    private static final List<String> SNAPSHOT_SECTIONS = Arrays.asList(SECTION_WIFI_STATE,
+            SECTION_CONNECTION_INFO, SECTION_DHCP_INFO, SECTION_WIFI_AP_STATE,
+            SECTION_SCAN_ALWAYS_AVAILABLE, SECTION_SCAN_RESULTS);
+
+    private static final String EXISTING_UPDATE = "update";
+    private static final String EXISTING_SKIP = "skip";
+
+    private static final String OPERATION_ADDED = "ADDED";
+    private static final String OPERATION_UPDATED = "UPDATED";
+    private static final String OPERATION_SKIPPED = "SKIPPED";
+    private static final String OPERATION_FAILED = "FAILED";
+
+    private static final String THREAD_MAIN = "main";
+    private static final String THREAD_BACKGROUND = "background";
+
+    private static final String BACKEND_ANDROID = "android";
+    private static final String BACKEND_SIMULATOR = "simulator";
+
+    private WifiBackend backend;
+    private HiddenApi hiddenApi;
+    private ActionDispatcher dispatcher;
+    private final PluginStats stats = new PluginStats();
     private volatile CallbackContext onChange;
+    private final EventSubscribers subscribers = new EventSubscribers();
+    private volatile String scanResultsEventFormat;
+    private PausedEvents pausedEvents;
+    private volatile boolean resumeSummary = false;
+    private ScheduledExecutorService eventScheduler;
+    private EventThrottle eventThrottle;
     private BroadcastReceiver broadcastReceiver = new WifiBroadcastReceiver();
-    private final List<CallbackContext> scanResultsCallbacks = new ArrayList<CallbackContext>();
-    private final List<CallbackClosure> wifiApEnableCallbacks = new ArrayList<CallbackClosure>();
+    private HandlerThread broadcastThread;
+    private WifiEvents wifiEvents;
+    private BroadcastRegistration registration;
+    private ScanResultsCache scanResultsCache;
+    private ConfiguredNetworkIndex networkIndex;
+    private ScanScheduler scanScheduler;
+    private ConnectionTracker connectionTracker;
+    private LinkSampler linkSampler;
+    private ScanHistory scanHistory;
+    private ExecutorService scanHistoryExecutor;
+    private volatile boolean recordingScanHistory = false;
+    private final ScanSnapshots scanSnapshots = new ScanSnapshots();
+    private PermissionGate permissionGate;
 
     @Override
     public void initialize(CordovaInterface cordova, CordovaWebView webView) {
         super.initialize(cordova, webView);
 
-        wifiManager = (WifiManager) cordova.getActivity()
-                .getApplication()
-                .getApplicationContext()
-                .getSystemService(Context.WIFI_SERVICE);
+        boolean simulated = BACKEND_SIMULATOR.equals(preferences.getString(PREFERENCE_BACKEND, BACKEND_ANDROID));
+
+        if(simulated) {
+            backend = new SimulatedWifiBackend(preferences.getString(PREFERENCE_SIMULATOR, null));
+        } else {
+            backend = new AndroidWifiBackend((WifiManager) cordova.getActivity()
+                    .getApplication()
+                    .getApplicationContext()
+                    .getSystemService(Context.WIFI_SERVICE));
+        }
+
+        backend = new TimedWifiBackend(backend, stats);
+
+        hiddenApi = new HiddenApi(backend.getHiddenApiTarget().getClass());
+        permissionGate = createPermissionGate();
+        networkIndex = new ConfiguredNetworkIndex(backend, new ConfiguredNetworkIndex.Listener() {
+            @Override
+            public void onWatching(boolean watching) {
+                if(watching) registration.require(WifiManager.NETWORK_IDS_CHANGED_ACTION);
+                else registration.release(WifiManager.NETWORK_IDS_CHANGED_ACTION);
+            }
+        });
+        eventScheduler = Executors.newSingleThreadScheduledExecutor();
+        eventThrottle = new EventThrottle(new EventThrottle.Sink() {
+            @Override
+            public void send(PluginResult result) {
+                sendEvent(EventThrottle.EVENT_BATCH, System.nanoTime(), result);
+            }
+        }, eventScheduler);
+        scanResultsCache = new ScanResultsCache(preferences.getInteger(
+                PREFERENCE_SCAN_RESULTS_MAX_AGE, DEFAULT_SCAN_RESULTS_MAX_AGE));
+
+        // Building the event JSON off the main thread keeps it from
+        // competing with rendering during scan storms
+        Handler broadcastHandler = null;
+
+        if(THREAD_BACKGROUND.equals(preferences.getString(PREFERENCE_BROADCAST_THREAD, THREAD_MAIN))) {
+            broadcastThread = new HandlerThread("WifiManagerPlugin-broadcast");
+            broadcastThread.start();
+            broadcastHandler = new Handler(broadcastThread.getLooper());
+        }
+
+        wifiEvents = new WifiEvents(hiddenApi.getStringField(HiddenApi.WIFI_AP_STATE_CHANGED_ACTION));
+        // Simulated broadcasts must not be mixed with the system's
+        registration = new BroadcastRegistration(simulated ? null : cordova.getActivity(), broadcastReceiver,
+                broadcastHandler, wifiEvents.getActions().values());
+        pausedEvents = new PausedEvents(wifiEvents);
+
+        // The cache is only valid as long as we hear about new scans
+        if(scanResultsCache.isEnabled()) {
+            registration.require(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION);
+            registration.require(WifiManager.WIFI_STATE_CHANGED_ACTION);
+        }
+
+        scanScheduler = new ScanScheduler(backend, registration, eventScheduler, cordova.getThreadPool(),
+                preferences.getInteger(PREFERENCE_SCAN_BUDGET, DEFAULT_SCAN_BUDGET),
+                preferences.getInteger(PREFERENCE_SCAN_BUDGET_WINDOW, DEFAULT_SCAN_BUDGET_WINDOW));
+        connectionTracker = new ConnectionTracker(registration, eventScheduler);
+        linkSampler = new LinkSampler(backend, registration, eventScheduler, LINK_SAMPLE_CAPACITY);
+
+        // Scans are appended one at a time, off the receiver's thread
+        scanHistory = new ScanHistory(new File(cordova.getActivity().getFilesDir(), SCAN_HISTORY_DIRECTORY));
+        scanHistoryExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "WifiManagerPlugin-history");
+            }
+        });
+
+        dispatcher = new ActionDispatcher(new ActionDispatcher.Handler() {
+            @Override
+            public boolean handle(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
+                stats.beginAction();
+
+                try {
+                    return executeAction(action, args, callbackContext);
+                } finally {
+                    stats.endAction();
+                }
+            }
+        }, cordova.getThreadPool());
+
+        // Cheap getters stay inline, list queries go to the pool and
+        // anything that mutates the supplicant state is serialized
+        dispatcher.setPolicy(ACTION_ADD_LISTENER, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_ADD_NETWORK, ActionDispatcher.Policy.SERIAL);
+        dispatcher.setPolicy(ACTION_ADD_NETWORKS, ActionDispatcher.Policy.SERIAL);
+        dispatcher.setPolicy(ACTION_BATCH, ActionDispatcher.Policy.SERIAL);
+        dispatcher.setPolicy(ACTION_CONNECT, ActionDispatcher.Policy.SERIAL);
+        dispatcher.setPolicy(ACTION_COMPACT_SCAN_HISTORY, ActionDispatcher.Policy.POOL);
+        dispatcher.setPolicy(ACTION_DISABLE_NETWORK, ActionDispatcher.Policy.SERIAL);
+        dispatcher.setPolicy(ACTION_DISCONNECT, ActionDispatcher.Policy.SERIAL);
+        dispatcher.setPolicy(ACTION_ENABLE_NETWORK, ActionDispatcher.Policy.SERIAL);
+        dispatcher.setPolicy(ACTION_FIND_NETWORK, ActionDispatcher.Policy.POOL);
+        dispatcher.setPolicy(ACTION_GET_CAPABILITIES, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_GET_CONFIGURATION_NETWORKS, ActionDispatcher.Policy.POOL);
+        dispatcher.setPolicy(ACTION_GET_CONNECTION_INFO, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_GET_DHCP_INFO, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_GET_LINK_STATS, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_GET_NETWORK, ActionDispatcher.Policy.POOL);
+        dispatcher.setPolicy(ACTION_GET_PLUGIN_STATS, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_GET_SCAN_RESULTS, ActionDispatcher.Policy.POOL);
+        dispatcher.setPolicy(ACTION_GET_SCAN_RESULTS_SINCE, ActionDispatcher.Policy.POOL);
+        dispatcher.setPolicy(ACTION_GET_SNAPSHOT, ActionDispatcher.Policy.POOL);
+        dispatcher.setPolicy(ACTION_GET_WIFI_AP_CONFIGURATION, ActionDispatcher.Policy.POOL);
+        dispatcher.setPolicy(ACTION_GET_WIFI_AP_STATE, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_GET_WIFI_STATE, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_IS_SCAN_ALWAYS_AVAILABLE, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_IS_WIFI_AP_ENABLED, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_IS_WIFI_ENABLED, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_QUERY_SCAN_HISTORY, ActionDispatcher.Policy.POOL);
+        dispatcher.setPolicy(ACTION_REASSOCIATE, ActionDispatcher.Policy.SERIAL);
+        dispatcher.setPolicy(ACTION_RECONNECT, ActionDispatcher.Policy.SERIAL);
+        dispatcher.setPolicy(ACTION_REMOVE_LISTENER, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_REMOVE_NETWORK, ActionDispatcher.Policy.SERIAL);
+        dispatcher.setPolicy(ACTION_RESET_PLUGIN_STATS, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_SAVE_CONFIGURATION, ActionDispatcher.Policy.SERIAL);
+        dispatcher.setPolicy(ACTION_SCAN_AND_WAIT, ActionDispatcher.Policy.POOL);
+        dispatcher.setPolicy(ACTION_SET_EVENT_OPTIONS, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_SET_EVENT_THROTTLE, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_SET_WIFI_AP_CONFIGURATION, ActionDispatcher.Policy.SERIAL);
+        dispatcher.setPolicy(ACTION_SET_WIFI_AP_ENABLED, ActionDispatcher.Policy.SERIAL);
+        dispatcher.setPolicy(ACTION_SET_WIFI_ENABLED, ActionDispatcher.Policy.SERIAL);
+        dispatcher.setPolicy(ACTION_START_LINK_SAMPLING, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_START_PERIODIC_SCAN, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_START_SCAN, ActionDispatcher.Policy.POOL);
+        dispatcher.setPolicy(ACTION_START_SCAN_HISTORY, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_STOP_LINK_SAMPLING, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_STOP_PERIODIC_SCAN, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_STOP_SCAN_HISTORY, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_STREAM_CONFIGURED_NETWORKS, ActionDispatcher.Policy.POOL);
+        dispatcher.setPolicy(ACTION_STREAM_SCAN_RESULTS, ActionDispatcher.Policy.POOL);
+        dispatcher.setPolicy(ACTION_SUBSCRIBE, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_UNSUBSCRIBE, ActionDispatcher.Policy.INLINE);
+        dispatcher.setPolicy(ACTION_UPDATE_NETWORK, ActionDispatcher.Policy.SERIAL);
+        dispatcher.setPolicy(ACTION_ON_CHANGE, ActionDispatcher.Policy.INLINE);
+        dispatcher.configure(preferences.getString(PREFERENCE_EXECUTION_POLICY, null));
+
+        backend.start(registration);
     }
 
     @Override
     public void onResume(boolean multitasking) {
         super.onResume(multitasking);
 
-        IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(WifiManager.NETWORK_IDS_CHANGED_ACTION);
-        intentFilter.addAction(WifiManager.NETWORK_STATE_CHANGED_ACTION);
-        intentFilter.addAction(WifiManager.RSSI_CHANGED_ACTION);
-        intentFilter.addAction(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION);
-        intentFilter.addAction(WifiManager.SUPPLICANT_CONNECTION_CHANGE_ACTION);
-        intentFilter.addAction(WifiManager.SUPPLICANT_STATE_CHANGED_ACTION);
-        intentFilter.addAction(WifiManager.WIFI_STATE_CHANGED_ACTION);
-        if(WIFI_AP_STATE_CHANGED_ACTION != null) intentFilter.addAction(WIFI_AP_STATE_CHANGED_ACTION);
-
-        cordova.getActivity().registerReceiver(broadcastReceiver, intentFilter);
+        // Scans and network changes that happened while paused were not
+        // seen by the receiver
+        scanResultsCache.invalidate();
+        networkIndex.invalidate();
+        // Write settings can be revoked without restarting the app
+        permissionGate.refresh();
+        registration.setActive(true);
+        scanScheduler.setActive(true);
+        linkSampler.setActive(true);
+
+        sendResumed();
     }
 
     @Override
     public void onPause(boolean multitasking) {
         super.onPause(multitasking);
 
-        cordova.getActivity().unregisterReceiver(broadcastReceiver);
+        if(resumeSummary) pausedEvents.pause();
+        registration.setActive(false);
+        scanScheduler.setActive(false);
+        linkSampler.setActive(false);
     }
 
     @Override
-    public void onRequestPermissionResult(int requestCode, String[] permissions, int[] grantResults) throws JSONException {
-        if(requestCode == REQUEST_CODE_SCAN_RESULTS) {
-            boolean hasPermission = true;
-
-            for(int result : grantResults) {
-                hasPermission = hasPermission && result == PackageManager.PERMISSION_GRANTED;
+    public void onDestroy() {
+        super.onDestroy();
+
+        backend.stop();
+        dispatcher.shutdown();
+        eventScheduler.shutdown();
+        // The background receiver is registered on the application context
+        // and would outlive the activity
+        registration.setBackgroundReceiver(null);
+        registration.setActive(false);
+        if(broadcastThread != null) broadcastThread.quitSafely();
+
+        scanHistoryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                scanHistory.close();
             }
+        });
+        scanHistoryExecutor.shutdown();
+    }
 
-            synchronized(scanResultsCallbacks) {
-                if(hasPermission) {
-                    List<ScanResult> scanResults = wifiManager.getScanResults();
-                    JSONArray json = toJSON(scanResults);
-                    for(CallbackContext callbackContext : scanResultsCallbacks) {
-                        callbackContext.sendPluginResult(OK(json));
-                    }
-                } else {
-                    String message = "Permission denied " + TextUtils.join(", ", permissions);
-                    for(CallbackContext callbackContext : scanResultsCallbacks) {
-                        callbackContext.sendPluginResult(ERROR(message));
-                    }
-                }
-
-                scanResultsCallbacks.clear();
-            }
-        }
+    @Override
+    public void onRequestPermissionResult(int requestCode, String[] permissions, int[] grantResults) throws JSONException {
+        if(requestCode == REQUEST_CODE_SCAN_RESULTS) permissionGate.onRequestCompleted(ACCESS_COARSE_LOCATION);
     }
 
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent intent) {
-        if(requestCode == REQUEST_CODE_WIFI_AP_ENABLE) {
-            boolean hasPermission = hasWriteSettingsPermission();
-
-            synchronized(wifiApEnableCallbacks) {
-                for(CallbackClosure callbackClosure : wifiApEnableCallbacks) {
-                    CallbackContext callbackContext = callbackClosure.getCallbackContext();
-
-                    try {
-                        if(hasPermission) {
-                            setWifiApEnabledWithPermission(callbackClosure.getArgs(), callbackContext);
-                        } else {
-                            callbackContext.sendPluginResult(ERROR("Permission denied WRITE_SETTINGS"));
-                        }
-                    } catch(JSONException e) {
-                        PluginResult result = new PluginResult(PluginResult.Status.JSON_EXCEPTION, e.getMessage());
-                        callbackContext.sendPluginResult(result);
-                    }
-                }
+        if(requestCode == REQUEST_CODE_WIFI_AP_ENABLE) permissionGate.onRequestCompleted(WRITE_SETTINGS);
+    }
+
+    @Override
+    public boolean execute(String action, String rawArgs, CallbackContext callbackContext) throws JSONException {
+        // Configurations are decoded straight from the raw arguments
+        // instead of going through an intermediate JSONObject tree
+        if(action.equals(ACTION_ADD_NETWORK) ||
+                action.equals(ACTION_ADD_NETWORKS) ||
+                action.equals(ACTION_SET_WIFI_AP_CONFIGURATION) ||
+                action.equals(ACTION_SET_WIFI_AP_ENABLED) ||
+                action.equals(ACTION_UPDATE_NETWORK)) {
+            JSONArray args;
 
-                wifiApEnableCallbacks.clear();
+            try {
+                args = WifiConfigurationDecoder.readArgs(rawArgs);
+            } catch(JSONException e) {
+                // Let the regular path report malformed arguments
+                return super.execute(action, rawArgs, callbackContext);
             }
+
+            return execute(action, args, callbackContext);
         }
+
+        return super.execute(action, rawArgs, callbackContext);
     }
 
     @Override
     public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
-        if(action.equals(ACTION_ADD_NETWORK)) addNetwork(args, callbackContext);
+        long start = System.nanoTime();
+
+        try {
+            return dispatcher.dispatch(action, args, stats.instrument(action, callbackContext, webView));
+        } catch(JSONException e) {
+            // Cordova answers with a JSON_EXCEPTION, count it the same way
+            PluginResult result = new PluginResult(PluginResult.Status.JSON_EXCEPTION, e.getMessage());
+            stats.recordAction(action, System.nanoTime() - start, result);
+            throw e;
+        }
+    }
+
+    private boolean executeAction(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
+        if(action.equals(ACTION_ADD_LISTENER)) addListener(args, callbackContext);
+        else if(action.equals(ACTION_ADD_NETWORK)) addNetwork(args, callbackContext);
+        else if(action.equals(ACTION_ADD_NETWORKS)) addNetworks(args, callbackContext);
+        else if(action.equals(ACTION_BATCH)) batch(args, callbackContext);
+        else if(action.equals(ACTION_CONNECT)) connect(args, callbackContext);
+        else if(action.equals(ACTION_COMPACT_SCAN_HISTORY)) compactScanHistory(args, callbackContext);
         else if(action.equals(ACTION_DISABLE_NETWORK)) disableNetwork(args, callbackContext);
         else if(action.equals(ACTION_DISCONNECT)) disconnect(callbackContext);
         else if(action.equals(ACTION_ENABLE_NETWORK)) enableNetwork(args, callbackContext);
-        else if(action.equals(ACTION_GET_CONFIGURATION_NETWORKS)) getConfiguredNetworks(callbackContext);
-        else if(action.equals(ACTION_GET_CONNECTION_INFO)) getConnectionInfo(callbackContext);
-        else if(action.equals(ACTION_GET_DHCP_INFO)) getDhcpInfo(callbackContext);
-        else if(action.equals(ACTION_GET_SCAN_RESULTS)) getScanResults(callbackContext);
+        else if(action.equals(ACTION_FIND_NETWORK)) findNetwork(args, callbackContext);
+        else if(action.equals(ACTION_GET_CAPABILITIES)) getCapabilities(callbackContext);
+        else if(action.equals(ACTION_GET_CONFIGURATION_NETWORKS)) getConfiguredNetworks(args, callbackContext);
+        else if(action.equals(ACTION_GET_CONNECTION_INFO)) getConnectionInfo(args, callbackContext);
+        else if(action.equals(ACTION_GET_DHCP_INFO)) getDhcpInfo(args, callbackContext);
+        else if(action.equals(ACTION_GET_LINK_STATS)) getLinkStats(args, callbackContext);
+        else if(action.equals(ACTION_GET_NETWORK)) getNetwork(args, callbackContext);
+        else if(action.equals(ACTION_GET_PLUGIN_STATS)) getPluginStats(callbackContext);
+        else if(action.equals(ACTION_GET_SCAN_RESULTS)) getScanResults(args, callbackContext);
+        else if(action.equals(ACTION_GET_SCAN_RESULTS_SINCE)) getScanResultsSince(args, callbackContext);
+        else if(action.equals(ACTION_GET_SNAPSHOT)) getSnapshot(args, callbackContext);
         else if(action.equals(ACTION_GET_WIFI_AP_CONFIGURATION)) return getWifiApConfiguration(callbackContext);
         else if(action.equals(ACTION_GET_WIFI_AP_STATE)) return getWifiApState(callbackContext);
         else if(action.equals(ACTION_GET_WIFI_STATE)) getWifiState(callbackContext);
         else if(action.equals(ACTION_IS_SCAN_ALWAYS_AVAILABLE)) isScanAlwaysAvailable(callbackContext);
         else if(action.equals(ACTION_IS_WIFI_AP_ENABLED)) return isWifiApEnabled(callbackContext);
         else if(action.equals(ACTION_IS_WIFI_ENABLED)) isWifiEnabled(callbackContext);
+        else if(action.equals(ACTION_QUERY_SCAN_HISTORY)) queryScanHistory(args, callbackContext);
         else if(action.equals(ACTION_REASSOCIATE)) reassociate(callbackContext);
         else if(action.equals(ACTION_RECONNECT)) reconnect(callbackContext);
+        else if(action.equals(ACTION_REMOVE_LISTENER)) removeListener(args, callbackContext);
         else if(action.equals(ACTION_REMOVE_NETWORK)) removeNetwork(args, callbackContext);
+        else if(action.equals(ACTION_RESET_PLUGIN_STATS)) resetPluginStats(callbackContext);
         else if(action.equals(ACTION_SAVE_CONFIGURATION)) saveConfiguration(callbackContext);
+        else if(action.equals(ACTION_SCAN_AND_WAIT)) scanAndWait(args, callbackContext);
+        else if(action.equals(ACTION_SET_EVENT_OPTIONS)) setEventOptions(args, callbackContext);
+        else if(action.equals(ACTION_SET_EVENT_THROTTLE)) setEventThrottle(args, callbackContext);
         else if(action.equals(ACTION_SET_WIFI_AP_CONFIGURATION)) return setWifiApConfiguration(args, callbackContext);
         else if(action.equals(ACTION_SET_WIFI_AP_ENABLED)) return setWifiApEnabled(args, callbackContext);
         else if(action.equals(ACTION_SET_WIFI_ENABLED)) setWifiEnabled(args, callbackContext);
+        else if(action.equals(ACTION_START_LINK_SAMPLING)) startLinkSampling(args, callbackContext);
+        else if(action.equals(ACTION_START_PERIODIC_SCAN)) startPeriodicScan(args, callbackContext);
         else if(action.equals(ACTION_START_SCAN)) startScan(callbackContext);
+        else if(action.equals(ACTION_START_SCAN_HISTORY)) startScanHistory(args, callbackContext);
+        else if(action.equals(ACTION_STOP_LINK_SAMPLING)) stopLinkSampling(callbackContext);
+        else if(action.equals(ACTION_STOP_PERIODIC_SCAN)) stopPeriodicScan(callbackContext);
+        else if(action.equals(ACTION_STOP_SCAN_HISTORY)) stopScanHistory(callbackContext);
+        else if(action.equals(ACTION_STREAM_CONFIGURED_NETWORKS)) streamConfiguredNetworks(args, callbackContext);
+        else if(action.equals(ACTION_STREAM_SCAN_RESULTS)) streamScanResults(args, callbackContext);
+        else if(action.equals(ACTION_SUBSCRIBE)) subscribe(args, callbackContext);
+        else if(action.equals(ACTION_UNSUBSCRIBE)) unsubscribe(args, callbackContext);
         else if(action.equals(ACTION_UPDATE_NETWORK)) updateNetwork(args, callbackContext);
         else if(action.equals(ACTION_ON_CHANGE)) onChange(callbackContext);
         else return false;
@@ -201,90 +482,440 @@ public class WifiManagerPlugin extends CordovaPlugin {
         return true;
     }
 
+    private void batch(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        JSONArray entries = args.getJSONArray(0);
+        JSONObject options = args.optJSONObject(1);
+        boolean stopOnError = options != null && options.optBoolean("stopOnError", false);
+
+        // Entries run on the batch's thread, one at a time and in order
+        ActionBatch batch = new ActionBatch(new ActionDispatcher.Handler() {
+            @Override
+            public boolean handle(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
+                // Nothing that answers more than once
+                if(action.equals(ACTION_BATCH) || action.equals(ACTION_ON_CHANGE) ||
+                        action.equals(ACTION_ADD_LISTENER) ||
+                        action.equals(ACTION_STREAM_CONFIGURED_NETWORKS) ||
+                        action.equals(ACTION_STREAM_SCAN_RESULTS)) {
+                    return false;
+                }
+
+                return executeAction(action, args, callbackContext);
+            }
+        }, entries, stopOnError, callbackContext);
+
+        batch.run();
+    }
+
+    private void addListener(JSONArray args, final CallbackContext callbackContext) throws JSONException {
+        String id = args.getString(0);
+        JSONArray events = args.isNull(1) ? null : args.getJSONArray(1);
+        JSONObject options = args.optJSONObject(2);
+        JSONObject throttleConfig = options == null ? null : options.optJSONObject("throttle");
+
+        Set<String> names = null;
+
+        if(events != null) {
+            names = new HashSet<String>();
+            for(int i = 0; i < events.length(); i++) names.add(WifiEvents.normalize(events.getString(i)));
+        }
+
+        EventThrottle throttle = null;
+
+        if(throttleConfig != null) {
+            throttle = new EventThrottle(new EventThrottle.Sink() {
+                @Override
+                public void send(PluginResult result) {
+                    sendEvent(callbackContext, EventThrottle.EVENT_BATCH, System.nanoTime(), result);
+                }
+            }, eventScheduler);
+            throttle.configure(throttleConfig);
+        }
+
+        EventSubscribers.Subscriber subscriber = new EventSubscribers.Subscriber(id, callbackContext, names, throttle);
+        listen(subscriber, true);
+
+        EventSubscribers.Subscriber replaced = subscribers.add(subscriber);
+        if(replaced != null) closeListener(replaced);
+
+        // The callback stays open until the listener is removed
+    }
+
     private void addNetwork(JSONArray args, CallbackContext callbackContext) throws JSONException {
-        JSONObject json = args.getJSONObject(0);
-        WifiConfiguration wifiConfig = fromJSONWifiConfiguration(json);
-        int networkId = wifiManager.addNetwork(wifiConfig);
+        WifiConfiguration wifiConfig = getWifiConfiguration(args, 0);
+        int networkId = backend.addNetwork(wifiConfig);
+        networkIndex.invalidate();
         callbackContext.sendPluginResult(OK(networkId));
     }
 
+    private void addNetworks(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        JSONArray configs = args.getJSONArray(0);
+        JSONObject options = args.optJSONObject(1);
+        boolean skipExisting = options != null && EXISTING_SKIP.equals(options.optString("existing", EXISTING_UPDATE));
+        boolean save = options == null || options.optBoolean("save", true);
+
+        // List the configured networks once instead of once per entry
+        Map<String, Integer> bssids = new HashMap<String, Integer>();
+        Map<String, Integer> ssids = new HashMap<String, Integer>();
+
+        for(WifiConfiguration network : networkIndex.getNetworks()) {
+            putNetwork(bssids, ssids, network, network.networkId);
+        }
+
+        JSONArray results = new JSONArray();
+        boolean changed = false;
+
+        for(int i = 0; i < configs.length(); i++) {
+            WifiConfiguration wifiConfig = getWifiConfiguration(configs, i);
+            Integer existing = null;
+
+            if(isBSSID(wifiConfig.BSSID)) existing = bssids.get(wifiConfig.BSSID);
+            if(existing == null && wifiConfig.SSID != null) existing = ssids.get(wifiConfig.SSID);
+
+            String operation;
+            int networkId;
+
+            if(existing == null) {
+                operation = OPERATION_ADDED;
+                networkId = backend.addNetwork(wifiConfig);
+            } else if(skipExisting) {
+                operation = OPERATION_SKIPPED;
+                networkId = existing;
+            } else {
+                operation = OPERATION_UPDATED;
+                wifiConfig.networkId = existing;
+                networkId = backend.updateNetwork(wifiConfig);
+            }
+
+            if(networkId < 0) {
+                operation = OPERATION_FAILED;
+            } else if(!operation.equals(OPERATION_SKIPPED)) {
+                changed = true;
+                // Later entries for the same network update this one
+                putNetwork(bssids, ssids, wifiConfig, networkId);
+            }
+
+            JSONObject result = new JSONObject();
+            result.put("networkId", networkId);
+            result.put("operation", operation);
+            results.put(result);
+        }
+
+        if(changed) networkIndex.invalidate();
+        boolean saved = changed && save && backend.saveConfiguration();
+
+        JSONObject json = new JSONObject();
+        json.put("networks", results);
+        json.put("saved", saved);
+
+        callbackContext.sendPluginResult(OK(json));
+    }
+
+    private void connect(JSONArray args, final CallbackContext callbackContext) throws JSONException {
+        int networkId = args.getInt(0);
+        long timeout = args.isNull(1) ? DEFAULT_CONNECT_TIMEOUT : args.getLong(1);
+
+        connectionTracker.track(networkId, timeout, new ConnectionTracker.Listener() {
+            @Override
+            public void onConnected(int networkId, long elapsed) {
+                try {
+                    JSONObject json = new JSONObject();
+                    json.put("networkId", networkId);
+                    json.put("elapsed", elapsed);
+                    callbackContext.sendPluginResult(OK(json));
+                } catch(JSONException e) {
+                    callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.JSON_EXCEPTION, e.getMessage()));
+                }
+            }
+
+            @Override
+            public void onFailed(int networkId, String reason, long elapsed) {
+                try {
+                    callbackContext.sendPluginResult(ERROR(reason));
+                } catch(JSONException e) {
+                    callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.JSON_EXCEPTION, e.getMessage()));
+                }
+            }
+        });
+
+        // Nothing is broadcast if we are connected already
+        WifiInfo wifiInfo = backend.getConnectionInfo();
+
+        if(wifiInfo != null && wifiInfo.getNetworkId() == networkId &&
+                wifiInfo.getSupplicantState() == SupplicantState.COMPLETED) {
+            connectionTracker.onConnected(networkId);
+        } else {
+            boolean enabled = backend.enableNetwork(networkId, true);
+            networkIndex.invalidate();
+            if(!enabled) connectionTracker.onFailed(networkId, ConnectionTracker.REASON_ENABLE_FAILED);
+        }
+    }
+
+    private void compactScanHistory(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        JSONObject options = args.optJSONObject(0);
+        long before = options == null ? 0 : options.optLong("before", 0);
+
+        try {
+            callbackContext.sendPluginResult(OK(scanHistory.compact(before)));
+        } catch(IOException e) {
+            callbackContext.sendPluginResult(ERROR(e.getMessage()));
+        }
+    }
+
     private void disableNetwork(JSONArray args, CallbackContext callbackContext) throws JSONException {
         int networkId = args.getInt(0);
-        boolean result = wifiManager.disableNetwork(networkId);
+        boolean result = backend.disableNetwork(networkId);
+        // The status of the network changed
+        networkIndex.invalidate();
         callbackContext.sendPluginResult(OK(result));
     }
 
     private void disconnect(CallbackContext callbackContext) throws JSONException {
-        boolean result = wifiManager.disconnect();
+        boolean result = backend.disconnect();
         callbackContext.sendPluginResult(OK(result));
     }
 
     private void enableNetwork(JSONArray args, CallbackContext callbackContext) throws JSONException {
         int networkId = args.getInt(0);
         boolean attemptConnect = args.getBoolean(1);
-        boolean result = wifiManager.enableNetwork(networkId, attemptConnect);
+        boolean result = backend.enableNetwork(networkId, attemptConnect);
+        // Connecting also disables every other network
+        networkIndex.invalidate();
         callbackContext.sendPluginResult(OK(result));
     }
 
-    private void getConfiguredNetworks(CallbackContext callbackContext) throws JSONException {
-        List<WifiConfiguration> networks = wifiManager.getConfiguredNetworks();
+    private void getCapabilities(CallbackContext callbackContext) throws JSONException {
+        JSONObject json = hiddenApi.getCapabilities();
+        callbackContext.sendPluginResult(OK(json));
+    }
+
+    private void findNetwork(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        String ssid = args.getString(0);
+        FieldProjection fields = FieldProjection.fromOptions(args.optJSONObject(1));
+        WifiConfiguration wifiConfig = networkIndex.findNetwork(ssid);
+        callbackContext.sendPluginResult(OK(wifiConfig == null ? null : toJSON(wifiConfig, fields)));
+    }
+
+    private void getConfiguredNetworks(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        FieldProjection fields = FieldProjection.fromOptions(args.optJSONObject(0));
+        List<WifiConfiguration> networks = backend.getConfiguredNetworks();
         JSONArray json = new JSONArray();
 
         if(networks != null) {
             for(WifiConfiguration wifiConfig : networks) {
-                json.put(toJSON(wifiConfig));
+                json.put(toJSON(wifiConfig, fields));
             }
         }
 
         callbackContext.sendPluginResult(OK(json));
     }
 
-    private void getConnectionInfo(CallbackContext callbackContext) throws JSONException {
-        WifiInfo wifiInfo = wifiManager.getConnectionInfo();
-        JSONObject json = toJSON(wifiInfo);
+    private void getConnectionInfo(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        FieldProjection fields = FieldProjection.fromOptions(args.optJSONObject(0));
+        WifiInfo wifiInfo = backend.getConnectionInfo();
+        JSONObject json = toJSON(wifiInfo, fields);
+        callbackContext.sendPluginResult(OK(json));
+    }
+
+    private void getDhcpInfo(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        FieldProjection fields = FieldProjection.fromOptions(args.optJSONObject(0));
+        DhcpInfo dhcpInfo = backend.getDhcpInfo();
+        JSONObject json = toJSON(dhcpInfo, fields);
         callbackContext.sendPluginResult(OK(json));
     }
 
-    private void getDhcpInfo(CallbackContext callbackContext) throws JSONException {
-        DhcpInfo dhcpInfo = wifiManager.getDhcpInfo();
-        JSONObject json = toJSON(dhcpInfo);
+    private void getLinkStats(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        long window = args.isNull(0) ? 0 : args.getLong(0);
+        callbackContext.sendPluginResult(OK(linkSampler.getStats(window)));
+    }
+
+    private void getNetwork(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        int networkId = args.getInt(0);
+        FieldProjection fields = FieldProjection.fromOptions(args.optJSONObject(1));
+        WifiConfiguration wifiConfig = networkIndex.getNetwork(networkId);
+        callbackContext.sendPluginResult(OK(wifiConfig == null ? null : toJSON(wifiConfig, fields)));
+    }
+
+    private void getPluginStats(CallbackContext callbackContext) throws JSONException {
+        JSONObject json = stats.toJSON();
         callbackContext.sendPluginResult(OK(json));
     }
 
-    private void getScanResults(CallbackContext callbackContext) throws JSONException {
-        if(hasLocationPermission()) {
-            // We should end up here most of the time
-            getScanResultsWithPermission(callbackContext);
+    private void getScanResults(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        if(requestLocationPermission(ACTION_GET_SCAN_RESULTS, args, callbackContext)) {
+            JSONObject options = args.optJSONObject(0);
+            String format = options == null ? FORMAT_JSON : options.optString("format", FORMAT_JSON);
+            FieldProjection fields = FieldProjection.fromOptions(options);
+            getScanResultsWithPermission(format, fields, callbackContext);
+        }
+    }
+
+    private void scanAndWait(JSONArray args, final CallbackContext callbackContext) throws JSONException {
+        if(!requestLocationPermission(ACTION_SCAN_AND_WAIT, args, callbackContext)) return;
+
+        JSONObject options = args.optJSONObject(0);
+        final String format = options == null ? FORMAT_JSON : options.optString("format", FORMAT_JSON);
+        final FieldProjection fields = FieldProjection.fromOptions(options);
+        long timeout = options == null ? DEFAULT_SCAN_TIMEOUT : options.optLong("timeout", DEFAULT_SCAN_TIMEOUT);
+
+        // Everybody waiting for the same scan shares the cached result
+        scanScheduler.scanAndWait(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getScanResultsWithPermission(format, fields, callbackContext);
+                } catch(JSONException e) {
+                    callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.JSON_EXCEPTION, e.getMessage()));
+                }
+            }
+        }, timeout);
+    }
+
+    private void getScanResultsWithPermission(String format, FieldProjection fields,
+                                              CallbackContext callbackContext) throws JSONException {
+        // The binary format is compact already and always has every field
+        String key = FORMAT_BINARY.equals(format) ? FORMAT_BINARY : FORMAT_JSON + ":" + fields.getKey();
+        long generation = scanResultsCache.getGeneration();
+        PluginResult result = scanResultsCache.getResult(generation, key);
+
+        if(result == null) {
+            List<ScanResult> scanResults = getCachedScanResults(generation);
+
+            if(key.equals(FORMAT_BINARY) && ScanResultsEncoder.canEncode(scanResults)) {
+                byte[] bytes = ScanResultsEncoder.encode(scanResults, ScanResultsEncoder.KIND_SCAN_RESULTS, 0);
+                result = new PluginResult(PluginResult.Status.OK, bytes);
+            } else {
+                JSONArray json = toJSON(scanResults, fields);
+                result = OK(json);
+            }
+
+            scanResultsCache.putResult(generation, key, result);
+        }
+
+        callbackContext.sendPluginResult(result);
+    }
+
+    private List<ScanResult> getCachedScanResults(long generation) {
+        List<ScanResult> scanResults = scanResultsCache.getScanResults(generation);
+
+        if(scanResults == null) {
+            scanResults = backend.getScanResults();
+            scanResultsCache.putScanResults(generation, scanResults);
+        }
+
+        return scanResults;
+    }
+
+    private void getScanResultsSince(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        if(!requestLocationPermission(ACTION_GET_SCAN_RESULTS_SINCE, args, callbackContext)) return;
+
+        long cursor = args.isNull(0) ? 0 : args.getLong(0);
+        JSONObject options = args.optJSONObject(1);
+        int levelThreshold = options == null ? 1 : Math.max(1, options.optInt("levelThreshold", 1));
+
+        List<ScanResult> scanResults = getCachedScanResults(scanResultsCache.getGeneration());
+        JSONObject json = scanSnapshots.diff(scanResults, cursor, levelThreshold, new ScanSnapshots.Encoder() {
+            @Override
+            public Object encode(ScanResult scanResult) throws JSONException {
+                return toJSON(scanResult, FieldProjection.ALL);
+            }
+        });
+
+        callbackContext.sendPluginResult(OK(json));
+    }
+
+    private void getSnapshot(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        JSONArray requested = args.optJSONArray(0);
+        Set<String> sections = new LinkedHashSet<String>();
+
+        if(requested == null || requested.length() == 0) {
+            sections.addAll(SNAPSHOT_SECTIONS);
         } else {
-            synchronized(scanResultsCallbacks) {
-                if(hasLocationPermission()) {
-                    // We got permission while acquiring lock
-                    getScanResultsWithPermission(callbackContext);
+            for(int i = 0; i < requested.length(); i++) {
+                String section = requested.getString(i);
+
+                if(!SNAPSHOT_SECTIONS.contains(section)) {
+                    callbackContext.sendPluginResult(ERROR("Unknown section " + section));
                     return;
                 }
 
-                scanResultsCallbacks.add(callbackContext);
+                sections.add(section);
+            }
+        }
+
+        if(sections.contains(SECTION_SCAN_RESULTS) &&
+                !requestLocationPermission(ACTION_GET_SNAPSHOT, args, callbackContext)) return;
+
+        // Taken before any section is read so every section is at least this recent
+        long timestamp = System.currentTimeMillis();
+        final long generation = scanResultsCache.getGeneration();
+        ExecutorService executor = cordova.getThreadPool();
+        Map<String, Future<Object>> futures = new LinkedHashMap<String, Future<Object>>();
 
-                if(scanResultsCallbacks.size() == 1) {
-                    cordova.requestPermission(this, REQUEST_CODE_SCAN_RESULTS, ACCESS_COARSE_LOCATION);
+        for(final String section : sections) {
+            futures.put(section, executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return readSection(section, generation);
                 }
+            }));
+        }
+
+        JSONObject json = new JSONObject();
+        JSONObject errors = new JSONObject();
+        json.put("timestamp", timestamp);
+
+        for(Map.Entry<String, Future<Object>> entry : futures.entrySet()) {
+            Object value = JSONObject.NULL;
+
+            try {
+                Object result = entry.getValue().get();
+                if(result != null) value = result;
+            } catch(ExecutionException e) {
+                Throwable cause = e.getCause();
+                if(cause instanceof InvocationTargetException) cause = cause.getCause();
+                errors.put(entry.getKey(), cause.getMessage() == null ? cause.toString() : cause.getMessage());
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                errors.put(entry.getKey(), "Interrupted");
             }
+
+            json.put(entry.getKey(), value);
         }
-    }
 
-    private void getScanResultsWithPermission(CallbackContext callbackContext) throws JSONException {
-        List<ScanResult> scanResults = wifiManager.getScanResults();
-        JSONArray json = toJSON(scanResults);
+        json.put("errors", errors);
         callbackContext.sendPluginResult(OK(json));
     }
 
-    private boolean getWifiApConfiguration(CallbackContext callbackContext) throws JSONException {
-        Class<?> klass = wifiManager.getClass();
+    private Object readSection(String section, long generation) throws Exception {
+        if(section.equals(SECTION_CONNECTION_INFO)) {
+            return toJSON(backend.getConnectionInfo(), FieldProjection.ALL);
+        } else if(section.equals(SECTION_DHCP_INFO)) {
+            return toJSON(backend.getDhcpInfo(), FieldProjection.ALL);
+        } else if(section.equals(SECTION_SCAN_ALWAYS_AVAILABLE)) {
+            return backend.isScanAlwaysAvailable();
+        } else if(section.equals(SECTION_SCAN_RESULTS)) {
+            return toJSON(getCachedScanResults(generation), FieldProjection.ALL);
+        } else if(section.equals(SECTION_WIFI_AP_STATE)) {
+            Method method;
+
+            try {
+                method = hiddenApi.getMethod(HiddenApi.GET_WIFI_AP_STATE);
+            } catch(NoSuchMethodException e) {
+                // Not supported on this device
+                return null;
+            }
 
+            return toStringWifiApState((Integer) method.invoke(backend.getHiddenApiTarget()));
+        } else {
+            return toStringWifiState(backend.getWifiState());
+        }
+    }
+
+    private boolean getWifiApConfiguration(CallbackContext callbackContext) throws JSONException {
         try {
-            Method method = klass.getDeclaredMethod("getWifiApConfiguration");
-            WifiConfiguration wifiConfiguration = (WifiConfiguration) method.invoke(wifiManager);
-            JSONObject json = toJSON(wifiConfiguration);
+            Method method = hiddenApi.getMethod(HiddenApi.GET_WIFI_AP_CONFIGURATION);
+            WifiConfiguration wifiConfiguration = (WifiConfiguration) method.invoke(backend.getHiddenApiTarget());
+            JSONObject json = toJSON(wifiConfiguration, FieldProjection.ALL);
             callbackContext.sendPluginResult(OK(json));
         } catch(NoSuchMethodException e) {
             return false;
@@ -298,11 +929,9 @@ public class WifiManagerPlugin extends CordovaPlugin {
     }
 
     private boolean getWifiApState(CallbackContext callbackContext) throws JSONException {
-        Class<?> klass = wifiManager.getClass();
-
         try {
-            Method method = klass.getDeclaredMethod("getWifiApState");
-            int result = (Integer) method.invoke(wifiManager);
+            Method method = hiddenApi.getMethod(HiddenApi.GET_WIFI_AP_STATE);
+            int result = (Integer) method.invoke(backend.getHiddenApiTarget());
             String wifiApState = toStringWifiApState(result);
             callbackContext.sendPluginResult(OK(wifiApState));
         } catch(NoSuchMethodException e) {
@@ -317,21 +946,19 @@ public class WifiManagerPlugin extends CordovaPlugin {
     }
 
     private void getWifiState(CallbackContext callbackContext) throws JSONException {
-        String wifiState = toStringWifiState(wifiManager.getWifiState());
+        String wifiState = toStringWifiState(backend.getWifiState());
         callbackContext.sendPluginResult(OK(wifiState));
     }
 
     private void isScanAlwaysAvailable(CallbackContext callbackContext) throws JSONException {
-        boolean available = wifiManager.isScanAlwaysAvailable();
+        boolean available = backend.isScanAlwaysAvailable();
         callbackContext.sendPluginResult(OK(available));
     }
 
     private boolean isWifiApEnabled(CallbackContext callbackContext) throws JSONException {
-        Class<?> klass = wifiManager.getClass();
-
         try {
-            Method method = klass.getDeclaredMethod("isWifiApEnabled");
-            boolean enabled = (Boolean) method.invoke(wifiManager);
+            Method method = hiddenApi.getMethod(HiddenApi.IS_WIFI_AP_ENABLED);
+            boolean enabled = (Boolean) method.invoke(backend.getHiddenApiTarget());
             callbackContext.sendPluginResult(OK(enabled));
         } catch(NoSuchMethodException e) {
             return false;
@@ -345,39 +972,98 @@ public class WifiManagerPlugin extends CordovaPlugin {
     }
 
     private void isWifiEnabled(CallbackContext callbackContext) throws JSONException {
-        boolean enabled = wifiManager.isWifiEnabled();
+        boolean enabled = backend.isWifiEnabled();
         callbackContext.sendPluginResult(OK(enabled));
     }
 
+    private void queryScanHistory(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        JSONObject query = args.optJSONObject(0);
+        if(query == null) query = new JSONObject();
+
+        String bssid = query.isNull("BSSID") ? null : query.getString("BSSID");
+        String ssid = query.isNull("SSID") ? null : query.getString("SSID");
+        long from = query.optLong("from", 0);
+        long to = query.optLong("to", Long.MAX_VALUE);
+        int limit = query.optInt("limit", DEFAULT_SCAN_HISTORY_LIMIT);
+
+        try {
+            callbackContext.sendPluginResult(OK(scanHistory.query(bssid, ssid, from, to, limit)));
+        } catch(IOException e) {
+            callbackContext.sendPluginResult(ERROR(e.getMessage()));
+        }
+    }
+
     private void reassociate(CallbackContext callbackContext) throws JSONException {
-        boolean result = wifiManager.reassociate();
+        boolean result = backend.reassociate();
         callbackContext.sendPluginResult(OK(result));
     }
 
+    private void recordScanHistory() {
+        final long time = System.currentTimeMillis();
+
+        scanHistoryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    scanHistory.append(time, backend.getScanResults());
+                } catch(IOException e) {
+                    // Best effort, a failed append only loses this scan
+                }
+            }
+        });
+    }
+
     private void reconnect(CallbackContext callbackContext) throws JSONException {
-        boolean result = wifiManager.reconnect();
+        boolean result = backend.reconnect();
         callbackContext.sendPluginResult(OK(result));
     }
 
+    private void removeListener(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        EventSubscribers.Subscriber removed = subscribers.remove(args.getString(0));
+        if(removed != null) closeListener(removed);
+        callbackContext.sendPluginResult(OK(removed != null));
+    }
+
     private void removeNetwork(JSONArray args, CallbackContext callbackContext) throws JSONException {
         int networkId = args.getInt(0);
-        boolean result = wifiManager.removeNetwork(networkId);
+        boolean result = backend.removeNetwork(networkId);
+        networkIndex.invalidate();
         callbackContext.sendPluginResult(OK(result));
     }
 
+    private void resetPluginStats(CallbackContext callbackContext) throws JSONException {
+        stats.reset();
+        callbackContext.sendPluginResult(OK(true));
+    }
+
     private void saveConfiguration(CallbackContext callbackContext) throws JSONException {
-        boolean result = wifiManager.saveConfiguration();
+        boolean result = backend.saveConfiguration();
         callbackContext.sendPluginResult(OK(result));
     }
 
+    private void setEventOptions(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        JSONObject options = args.optJSONObject(0);
+        String format = options == null ? null : options.optString("scanResults", null);
+        scanResultsEventFormat = FORMAT_JSON.equals(format) || FORMAT_BINARY.equals(format) ? format : null;
+
+        // Listening while paused costs wakeups, so it is opt-in
+        resumeSummary = options != null && options.optBoolean("resumeSummary", false);
+        registration.setBackgroundReceiver(resumeSummary ? pausedEvents : null);
+
+        callbackContext.sendPluginResult(OK(true));
+    }
+
+    private void setEventThrottle(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        eventThrottle.configure(args.optJSONObject(0));
+        callbackContext.sendPluginResult(OK(true));
+    }
+
     private boolean setWifiApConfiguration(JSONArray args, CallbackContext callbackContext) throws JSONException {
-        Class<?> klass = wifiManager.getClass();
-        JSONObject json = args.getJSONObject(0);
-        WifiConfiguration wifiConfig = fromJSONWifiConfiguration(json);
+        WifiConfiguration wifiConfig = getWifiConfiguration(args, 0);
 
         try {
-            Method method = klass.getDeclaredMethod("setWifiApConfiguration", WifiConfiguration.class);
-            boolean result = (Boolean) method.invoke(wifiManager, wifiConfig);
+            Method method = hiddenApi.getMethod(HiddenApi.SET_WIFI_AP_CONFIGURATION);
+            boolean result = (Boolean) method.invoke(backend.getHiddenApiTarget(), wifiConfig);
             callbackContext.sendPluginResult(OK(result));
         } catch(NoSuchMethodException e) {
             return false;
@@ -391,42 +1077,22 @@ public class WifiManagerPlugin extends CordovaPlugin {
     }
 
     private boolean setWifiApEnabled(JSONArray args, CallbackContext callbackContext) throws JSONException {
-        if (hasWriteSettingsPermission()) {
-            return setWifiApEnabledWithPermission(args, callbackContext);
-        } else {
-            synchronized(wifiApEnableCallbacks) {
-                if(hasWriteSettingsPermission()) {
-                    return setWifiApEnabledWithPermission(args, callbackContext);
-                }
-
-                try {
-                    Class<?> klass = wifiManager.getClass();
-                    klass.getDeclaredMethod("setWifiApEnabled", WifiConfiguration.class, boolean.class);
-                } catch(NoSuchMethodException e) {
-                    return false;
-                }
-
-                wifiApEnableCallbacks.add(new CallbackClosure(args, callbackContext));
-
-                if(wifiApEnableCallbacks.size() == 1) {
-                    Intent intent = new Intent(ACTION_MANAGE_WRITE_SETTINGS);
-                    cordova.startActivityForResult(this, intent, REQUEST_CODE_WIFI_AP_ENABLE);
-                }
-
-                return true;
-            }
+        // Nothing to ask for if the platform can not do it anyway
+        if(!permissionGate.isGranted(WRITE_SETTINGS) && !hiddenApi.hasMethod(HiddenApi.SET_WIFI_AP_ENABLED)) {
+            return false;
         }
+
+        if(!permissionGate.require(WRITE_SETTINGS, ACTION_SET_WIFI_AP_ENABLED, args, callbackContext)) return true;
+        return setWifiApEnabledWithPermission(args, callbackContext);
     }
 
     private boolean setWifiApEnabledWithPermission(JSONArray args, CallbackContext callbackContext) throws JSONException {
-        Class<?> klass = wifiManager.getClass();
-        JSONObject json = args.getJSONObject(0);
-        WifiConfiguration wifiConfig = fromJSONWifiConfiguration(json);
+        WifiConfiguration wifiConfig = getWifiConfiguration(args, 0);
         boolean enabled = args.getBoolean(1);
 
         try {
-            Method method = klass.getDeclaredMethod("setWifiApEnabled", WifiConfiguration.class, boolean.class);
-            boolean result = (Boolean) method.invoke(wifiManager, wifiConfig, enabled);
+            Method method = hiddenApi.getMethod(HiddenApi.SET_WIFI_AP_ENABLED);
+            boolean result = (Boolean) method.invoke(backend.getHiddenApiTarget(), wifiConfig, enabled);
             callbackContext.sendPluginResult(OK(result));
         } catch(NoSuchMethodException e) {
             return false;
@@ -441,19 +1107,109 @@ public class WifiManagerPlugin extends CordovaPlugin {
 
     private void setWifiEnabled(JSONArray args, CallbackContext callbackContext) throws JSONException {
         boolean enabled = args.getBoolean(0);
-        boolean result = wifiManager.setWifiEnabled(enabled);
+        boolean result = backend.setWifiEnabled(enabled);
         callbackContext.sendPluginResult(OK(result));
     }
 
+    private void startLinkSampling(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        JSONObject options = args.optJSONObject(0);
+        long interval = options == null ? 0 : options.optLong("interval", 0);
+
+        linkSampler.start(interval);
+        callbackContext.sendPluginResult(OK(true));
+    }
+
+    private void startPeriodicScan(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        JSONObject options = args.optJSONObject(0);
+        long interval = options == null ?
+                DEFAULT_PERIODIC_SCAN_INTERVAL :
+                options.optLong("interval", DEFAULT_PERIODIC_SCAN_INTERVAL);
+        long maxInterval = options == null ? interval : options.optLong("maxInterval", interval);
+
+        scanScheduler.startPeriodic(interval, maxInterval);
+        callbackContext.sendPluginResult(OK(true));
+    }
+
     private void startScan(CallbackContext callbackContext) throws JSONException {
-        boolean result = wifiManager.startScan();
+        boolean result = scanScheduler.requestScan();
         callbackContext.sendPluginResult(OK(result));
     }
 
+    private void startScanHistory(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        // Without the permission every scan would be recorded as empty
+        if(!requestLocationPermission(ACTION_START_SCAN_HISTORY, args, callbackContext)) return;
+
+        synchronized(scanHistory) {
+            if(!recordingScanHistory) registration.require(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION);
+            recordingScanHistory = true;
+        }
+
+        callbackContext.sendPluginResult(OK(true));
+    }
+
+    private void stopLinkSampling(CallbackContext callbackContext) throws JSONException {
+        linkSampler.stop();
+        callbackContext.sendPluginResult(OK(true));
+    }
+
+    private void stopPeriodicScan(CallbackContext callbackContext) throws JSONException {
+        scanScheduler.stopPeriodic();
+        callbackContext.sendPluginResult(OK(true));
+    }
+
+    private void stopScanHistory(CallbackContext callbackContext) throws JSONException {
+        synchronized(scanHistory) {
+            if(recordingScanHistory) registration.release(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION);
+            recordingScanHistory = false;
+        }
+
+        callbackContext.sendPluginResult(OK(true));
+    }
+
+    private void streamConfiguredNetworks(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        JSONObject options = args.optJSONObject(0);
+        int pageSize = options == null ? DEFAULT_PAGE_SIZE : options.optInt("pageSize", DEFAULT_PAGE_SIZE);
+        final FieldProjection fields = FieldProjection.fromOptions(options);
+
+        ResultStream.send(backend.getConfiguredNetworks(), pageSize, new ResultStream.Encoder<WifiConfiguration>() {
+            @Override
+            public Object encode(WifiConfiguration wifiConfig) throws JSONException {
+                return toJSON(wifiConfig, fields);
+            }
+        }, callbackContext);
+    }
+
+    private void streamScanResults(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        if(!requestLocationPermission(ACTION_STREAM_SCAN_RESULTS, args, callbackContext)) return;
+
+        JSONObject options = args.optJSONObject(0);
+        int pageSize = options == null ? DEFAULT_PAGE_SIZE : options.optInt("pageSize", DEFAULT_PAGE_SIZE);
+        final FieldProjection fields = FieldProjection.fromOptions(options);
+
+        // Pages are encoded as they are sent, only the scan results are cached
+        List<ScanResult> scanResults = getCachedScanResults(scanResultsCache.getGeneration());
+        ResultStream.send(scanResults, pageSize, new ResultStream.Encoder<ScanResult>() {
+            @Override
+            public Object encode(ScanResult scanResult) throws JSONException {
+                return toJSON(scanResult, fields);
+            }
+        }, callbackContext);
+    }
+
+    private void subscribe(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        registration.subscribe(toActions(args.getJSONArray(0)));
+        callbackContext.sendPluginResult(OK(true));
+    }
+
+    private void unsubscribe(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        registration.unsubscribe(toActions(args.getJSONArray(0)));
+        callbackContext.sendPluginResult(OK(true));
+    }
+
     private void updateNetwork(JSONArray args, CallbackContext callbackContext) throws JSONException {
-        JSONObject json = args.getJSONObject(0);
-        WifiConfiguration wifiConfig = fromJSONWifiConfiguration(json);
-        int networkId = wifiManager.updateNetwork(wifiConfig);
+        WifiConfiguration wifiConfig = getWifiConfiguration(args, 0);
+        int networkId = backend.updateNetwork(wifiConfig);
+        networkIndex.invalidate();
         callbackContext.sendPluginResult(OK(networkId));
     }
 
@@ -461,121 +1217,134 @@ public class WifiManagerPlugin extends CordovaPlugin {
         onChange = callbackContext;
     }
 
-    private static JSONObject toJSON(WifiConfiguration wifiConfig) throws JSONException {
+    private static JSONObject toJSON(WifiConfiguration wifiConfig, FieldProjection fields) throws JSONException {
         if(wifiConfig == null) return null;
 
         JSONObject json = new JSONObject();
-        json.put("BSSID", wifiConfig.BSSID);
-        json.put("SSID", wifiConfig.SSID);
-
-        JSONObject authAlgorithms = new JSONObject();
-        authAlgorithms.put("LEAP",
-                wifiConfig.allowedAuthAlgorithms.get(WifiConfiguration.AuthAlgorithm.LEAP));
-        authAlgorithms.put("OPEN",
-                wifiConfig.allowedAuthAlgorithms.get(WifiConfiguration.AuthAlgorithm.OPEN));
-        authAlgorithms.put("SHARED",
-                wifiConfig.allowedAuthAlgorithms.get(WifiConfiguration.AuthAlgorithm.SHARED));
-        json.put("allowedAuthAlgorithms", authAlgorithms);
-
-        JSONObject groupCipher = new JSONObject();
-        groupCipher.put("CCMP",
-                wifiConfig.allowedGroupCiphers.get(WifiConfiguration.GroupCipher.CCMP));
-        groupCipher.put("TKIP",
-                wifiConfig.allowedGroupCiphers.get(WifiConfiguration.GroupCipher.TKIP));
-        groupCipher.put("WEP104",
-                wifiConfig.allowedGroupCiphers.get(WifiConfiguration.GroupCipher.WEP104));
-        groupCipher.put("WEP40",
-                wifiConfig.allowedGroupCiphers.get(WifiConfiguration.GroupCipher.WEP40));
-        json.put("allowedGroupCiphers", groupCipher);
-
-        JSONObject keyManagement = new JSONObject();
-        keyManagement.put("IEEE8021X",
-                wifiConfig.allowedKeyManagement.get(WifiConfiguration.KeyMgmt.IEEE8021X));
-        keyManagement.put("NONE",
-                wifiConfig.allowedKeyManagement.get(WifiConfiguration.KeyMgmt.NONE));
-        keyManagement.put("WPA_EAP",
-                wifiConfig.allowedKeyManagement.get(WifiConfiguration.KeyMgmt.WPA_EAP));
-        keyManagement.put("WPA_PSK",
-                wifiConfig.allowedKeyManagement.get(WifiConfiguration.KeyMgmt.WPA_PSK));
-        json.put("allowedKeyManagement", keyManagement);
-
-        JSONObject pairwiseCiphers = new JSONObject();
-        pairwiseCiphers.put("CCMP",
-                wifiConfig.allowedPairwiseCiphers.get(WifiConfiguration.PairwiseCipher.CCMP));
-        pairwiseCiphers.put("NONE",
-                wifiConfig.allowedPairwiseCiphers.get(WifiConfiguration.PairwiseCipher.NONE));
-        pairwiseCiphers.put("TKIP",
-                wifiConfig.allowedPairwiseCiphers.get(WifiConfiguration.PairwiseCipher.TKIP));
-        json.put("allowedPairwiseCiphers", pairwiseCiphers);
-
-        JSONObject protocols = new JSONObject();
-        protocols.put("RSN", wifiConfig.allowedProtocols.get(WifiConfiguration.Protocol.RSN));
-        protocols.put("WPA", wifiConfig.allowedProtocols.get(WifiConfiguration.Protocol.WPA));
-        json.put("allowedProtocols", protocols);
-
-        json.put("hiddenSSID", wifiConfig.hiddenSSID);
-        json.put("networkId", wifiConfig.networkId);
-        json.put("preSharedKey", wifiConfig.preSharedKey == null ?
+        if(fields.includes("BSSID")) json.put("BSSID", wifiConfig.BSSID);
+        if(fields.includes("SSID")) json.put("SSID", wifiConfig.SSID);
+
+        if(fields.includes("allowedAuthAlgorithms")) {
+            JSONObject authAlgorithms = new JSONObject();
+            authAlgorithms.put("LEAP",
+                    wifiConfig.allowedAuthAlgorithms.get(WifiConfiguration.AuthAlgorithm.LEAP));
+            authAlgorithms.put("OPEN",
+                    wifiConfig.allowedAuthAlgorithms.get(WifiConfiguration.AuthAlgorithm.OPEN));
+            authAlgorithms.put("SHARED",
+                    wifiConfig.allowedAuthAlgorithms.get(WifiConfiguration.AuthAlgorithm.SHARED));
+            json.put("allowedAuthAlgorithms", authAlgorithms);
+        }
+
+        if(fields.includes("allowedGroupCiphers")) {
+            JSONObject groupCipher = new JSONObject();
+            groupCipher.put("CCMP",
+                    wifiConfig.allowedGroupCiphers.get(WifiConfiguration.GroupCipher.CCMP));
+            groupCipher.put("TKIP",
+                    wifiConfig.allowedGroupCiphers.get(WifiConfiguration.GroupCipher.TKIP));
+            groupCipher.put("WEP104",
+                    wifiConfig.allowedGroupCiphers.get(WifiConfiguration.GroupCipher.WEP104));
+            groupCipher.put("WEP40",
+                    wifiConfig.allowedGroupCiphers.get(WifiConfiguration.GroupCipher.WEP40));
+            json.put("allowedGroupCiphers", groupCipher);
+        }
+
+        if(fields.includes("allowedKeyManagement")) {
+            JSONObject keyManagement = new JSONObject();
+            keyManagement.put("IEEE8021X",
+                    wifiConfig.allowedKeyManagement.get(WifiConfiguration.KeyMgmt.IEEE8021X));
+            keyManagement.put("NONE",
+                    wifiConfig.allowedKeyManagement.get(WifiConfiguration.KeyMgmt.NONE));
+            keyManagement.put("WPA_EAP",
+                    wifiConfig.allowedKeyManagement.get(WifiConfiguration.KeyMgmt.WPA_EAP));
+            keyManagement.put("WPA_PSK",
+                    wifiConfig.allowedKeyManagement.get(WifiConfiguration.KeyMgmt.WPA_PSK));
+            json.put("allowedKeyManagement", keyManagement);
+        }
+
+        if(fields.includes("allowedPairwiseCiphers")) {
+            JSONObject pairwiseCiphers = new JSONObject();
+            pairwiseCiphers.put("CCMP",
+                    wifiConfig.allowedPairwiseCiphers.get(WifiConfiguration.PairwiseCipher.CCMP));
+            pairwiseCiphers.put("NONE",
+                    wifiConfig.allowedPairwiseCiphers.get(WifiConfiguration.PairwiseCipher.NONE));
+            pairwiseCiphers.put("TKIP",
+                    wifiConfig.allowedPairwiseCiphers.get(WifiConfiguration.PairwiseCipher.TKIP));
+            json.put("allowedPairwiseCiphers", pairwiseCiphers);
+        }
+
+        if(fields.includes("allowedProtocols")) {
+            JSONObject protocols = new JSONObject();
+            protocols.put("RSN", wifiConfig.allowedProtocols.get(WifiConfiguration.Protocol.RSN));
+            protocols.put("WPA", wifiConfig.allowedProtocols.get(WifiConfiguration.Protocol.WPA));
+            json.put("allowedProtocols", protocols);
+        }
+
+        if(fields.includes("hiddenSSID")) json.put("hiddenSSID", wifiConfig.hiddenSSID);
+        if(fields.includes("networkId")) json.put("networkId", wifiConfig.networkId);
+        if(fields.includes("preSharedKey")) json.put("preSharedKey", wifiConfig.preSharedKey == null ?
                 JSONObject.NULL : wifiConfig.preSharedKey);
-        json.put("status", toStringWifiConfigurationStatus(wifiConfig.status));
+        if(fields.includes("status")) json.put("status", toStringWifiConfigurationStatus(wifiConfig.status));
 
-        JSONArray wepKeys = new JSONArray();
-        for(String key : wifiConfig.wepKeys) {
-            wepKeys.put(key == null ? JSONObject.NULL : key);
+        if(fields.includes("wepKeys")) {
+            JSONArray wepKeys = new JSONArray();
+            for(String key : wifiConfig.wepKeys) {
+                wepKeys.put(key == null ? JSONObject.NULL : key);
+            }
+
+            json.put("wepKeys", wepKeys);
         }
 
-        json.put("wepKeys", wepKeys);
-        json.put("wepTxKeyIndex", wifiConfig.wepTxKeyIndex);
+        if(fields.includes("wepTxKeyIndex")) json.put("wepTxKeyIndex", wifiConfig.wepTxKeyIndex);
 
         return json;
     }
 
-    private static JSONObject toJSON(WifiInfo wifiInfo) throws JSONException {
+    private static JSONObject toJSON(WifiInfo wifiInfo, FieldProjection fields) throws JSONException {
         if(wifiInfo == null) return null;
 
         JSONObject json = new JSONObject();
-        json.put("BSSID", wifiInfo.getBSSID());
-        json.put("frequency", wifiInfo.getFrequency());
-        json.put("hiddenSSID", wifiInfo.getHiddenSSID());
-        json.put("ipAddress", wifiInfo.getIpAddress());
-        json.put("linkSpeed", wifiInfo.getLinkSpeed());
-        json.put("macAddress", wifiInfo.getMacAddress());
-        json.put("networkId", wifiInfo.getNetworkId());
-        json.put("rssi", wifiInfo.getRssi());
-        json.put("SSID", wifiInfo.getSSID());
-        json.put("supplicantState", wifiInfo.getSupplicantState());
+        if(fields.includes("BSSID")) json.put("BSSID", wifiInfo.getBSSID());
+        if(fields.includes("frequency")) json.put("frequency", wifiInfo.getFrequency());
+        if(fields.includes("hiddenSSID")) json.put("hiddenSSID", wifiInfo.getHiddenSSID());
+        if(fields.includes("ipAddress")) json.put("ipAddress", wifiInfo.getIpAddress());
+        if(fields.includes("linkSpeed")) json.put("linkSpeed", wifiInfo.getLinkSpeed());
+        if(fields.includes("macAddress")) json.put("macAddress", wifiInfo.getMacAddress());
+        if(fields.includes("networkId")) json.put("networkId", wifiInfo.getNetworkId());
+        if(fields.includes("rssi")) json.put("rssi", wifiInfo.getRssi());
+        if(fields.includes("SSID")) json.put("SSID", wifiInfo.getSSID());
+        if(fields.includes("supplicantState")) json.put("supplicantState", wifiInfo.getSupplicantState());
 
         return json;
     }
 
-    private static JSONObject toJSON(DhcpInfo dhcpInfo) throws JSONException {
+    private static JSONObject toJSON(DhcpInfo dhcpInfo, FieldProjection fields) throws JSONException {
         if(dhcpInfo == null) return null;
 
         JSONObject json = new JSONObject();
-        json.put("dns1", dhcpInfo.dns1);
-        json.put("dns2", dhcpInfo.dns2);
-        json.put("gateway", dhcpInfo.gateway);
-        json.put("ipAddress", dhcpInfo.ipAddress);
-        json.put("leaseDuration", dhcpInfo.leaseDuration);
-        json.put("netmask", dhcpInfo.netmask);
-        json.put("serverAddress", dhcpInfo.serverAddress);
+        if(fields.includes("dns1")) json.put("dns1", dhcpInfo.dns1);
+        if(fields.includes("dns2")) json.put("dns2", dhcpInfo.dns2);
+        if(fields.includes("gateway")) json.put("gateway", dhcpInfo.gateway);
+        if(fields.includes("ipAddress")) json.put("ipAddress", dhcpInfo.ipAddress);
+        if(fields.includes("leaseDuration")) json.put("leaseDuration", dhcpInfo.leaseDuration);
+        if(fields.includes("netmask")) json.put("netmask", dhcpInfo.netmask);
+        if(fields.includes("serverAddress")) json.put("serverAddress", dhcpInfo.serverAddress);
 
         return json;
     }
 
-    private static JSONObject toJSON(ScanResult scanResult) throws JSONException {
+    private static JSONObject toJSON(ScanResult scanResult, FieldProjection fields) throws JSONException {
         if(scanResult == null) return null;
 
         JSONObject json = new JSONObject();
-        json.put("BSSID", scanResult.BSSID);
-        json.put("SSID", scanResult.SSID);
-        json.put("capabilities", scanResult.capabilities);
-        json.put("centerFreq0", scanResult.centerFreq0);
-        json.put("centerFreq1", scanResult.centerFreq1);
-        json.put("channelWidth", toStringChannelWidth(scanResult.channelWidth));
-        json.put("frequency", scanResult.frequency);
-        json.put("level", scanResult.level);
-        json.put("timestamp", scanResult.timestamp);
+        if(fields.includes("BSSID")) json.put("BSSID", scanResult.BSSID);
+        if(fields.includes("SSID")) json.put("SSID", scanResult.SSID);
+        if(fields.includes("capabilities")) json.put("capabilities", scanResult.capabilities);
+        if(fields.includes("centerFreq0")) json.put("centerFreq0", scanResult.centerFreq0);
+        if(fields.includes("centerFreq1")) json.put("centerFreq1", scanResult.centerFreq1);
+        if(fields.includes("channelWidth")) json.put("channelWidth", toStringChannelWidth(scanResult.channelWidth));
+        if(fields.includes("frequency")) json.put("frequency", scanResult.frequency);
+        if(fields.includes("level")) json.put("level", scanResult.level);
+        if(fields.includes("timestamp")) json.put("timestamp", scanResult.timestamp);
 
         return json;
     }
@@ -601,122 +1370,43 @@ public class WifiManagerPlugin extends CordovaPlugin {
         return json;
     }
 
-    private static JSONArray toJSON(List<ScanResult> scanResults) throws JSONException {
+    private static JSONArray toJSON(List<ScanResult> scanResults, FieldProjection fields) throws JSONException {
         JSONArray json = new JSONArray();
 
         if(scanResults != null) {
             for(ScanResult scanResult : scanResults) {
-                json.put(toJSON(scanResult));
+                json.put(toJSON(scanResult, fields));
             }
         }
 
         return  json;
     }
 
-    private static WifiConfiguration fromJSONWifiConfiguration(JSONObject json) throws JSONException {
-        WifiConfiguration wifiConfig = new WifiConfiguration();
-
-        if(!json.isNull("BSSID")) wifiConfig.BSSID = json.getString("BSSID");
-        if(!json.isNull("SSID")) wifiConfig.SSID = json.getString("SSID");
-
-        if(!json.isNull("allowedAuthAlgorithms")) {
-            JSONObject authAlgorithms = json.getJSONObject("allowedAuthAlgorithms");
-
-            if(!authAlgorithms.isNull("LEAP")) {
-                wifiConfig.allowedAuthAlgorithms.set(WifiConfiguration.AuthAlgorithm.LEAP);
-            }
-            if(!authAlgorithms.isNull("OPEN")) {
-                wifiConfig.allowedAuthAlgorithms.set(WifiConfiguration.AuthAlgorithm.OPEN);
-            }
-            if(!authAlgorithms.isNull("SHARED")) {
-                wifiConfig.allowedAuthAlgorithms.set(WifiConfiguration.AuthAlgorithm.SHARED);
-            }
-        }
-
-        if(!json.isNull("allowedGroupCiphers")) {
-            JSONObject groupCipher = json.getJSONObject("allowedGroupCiphers");
-
-            if(!groupCipher.isNull("CCMP")) {
-                wifiConfig.allowedGroupCiphers.set(WifiConfiguration.GroupCipher.CCMP);
-            }
-            if(!groupCipher.isNull("TKIP")) {
-                wifiConfig.allowedGroupCiphers.set(WifiConfiguration.GroupCipher.TKIP);
-            }
-            if(!groupCipher.isNull("WEP104")) {
-                wifiConfig.allowedGroupCiphers.set(WifiConfiguration.GroupCipher.WEP104);
-            }
-            if(!groupCipher.isNull("WEP40")) {
-                wifiConfig.allowedGroupCiphers.set(WifiConfiguration.GroupCipher.WEP40);
-            }
-        }
-
-        if(!json.isNull("allowedKeyManagement")) {
-            JSONObject keyManagement = json.getJSONObject("allowedKeyManagement");
-
-            if(!keyManagement.isNull("IEEE8021X")) {
-                wifiConfig.allowedKeyManagement.set(WifiConfiguration.KeyMgmt.IEEE8021X);
-            }
-            if(!keyManagement.isNull("NONE")) {
-                wifiConfig.allowedKeyManagement.set(WifiConfiguration.KeyMgmt.NONE);
-            }
-            if(!keyManagement.isNull("WPA_EAP")) {
-                wifiConfig.allowedKeyManagement.set(WifiConfiguration.KeyMgmt.WPA_EAP);
-            }
-            if(!keyManagement.isNull("WPA_PSK")) {
-                wifiConfig.allowedKeyManagement.set(WifiConfiguration.KeyMgmt.WPA_PSK);
-            }
-        }
-
-        if(!json.isNull("allowedPairwiseCiphers")) {
-            JSONObject pairwiseCiphers = json.getJSONObject("allowedPairwiseCiphers");
-
-            if(!pairwiseCiphers.isNull("CCMP")) {
-                wifiConfig.allowedPairwiseCiphers.set(WifiConfiguration.PairwiseCipher.CCMP);
-            }
-            if(!pairwiseCiphers.isNull("NONE")) {
-                wifiConfig.allowedPairwiseCiphers.set(WifiConfiguration.PairwiseCipher.NONE);
-            }
-            if(!pairwiseCiphers.isNull("TKIP")) {
-                wifiConfig.allowedPairwiseCiphers.set(WifiConfiguration.PairwiseCipher.TKIP);
-            }
-        }
-
-        if(!json.isNull("allowedProtocols")) {
-            JSONObject protocols = json.getJSONObject("allowedProtocols");
-
-            if(!protocols.isNull("RSN")) {
-                wifiConfig.allowedProtocols.set(WifiConfiguration.Protocol.RSN);
-            }
-            if(!protocols.isNull("WPA")) {
-                wifiConfig.allowedProtocols.set(WifiConfiguration.Protocol.WPA);
-            }
-        }
+    private static WifiConfiguration getWifiConfiguration(JSONArray args, int index) throws JSONException {
+        // Decoded while streaming the raw arguments, see execute
+        Object value = args.get(index);
+        if(value instanceof WifiConfiguration) return (WifiConfiguration) value;
 
-        if(!json.isNull("hiddenSSID")) wifiConfig.hiddenSSID = json.getBoolean("hiddenSSID");
-        if(!json.isNull("networkId")) wifiConfig.networkId = json.getInt("networkId");
-        if(!json.isNull("preSharedKey")) wifiConfig.preSharedKey = json.getString("preSharedKey");
-        if(!json.isNull("status")) wifiConfig.status =
-                fromStringWifiConfigurationStatus(json.getString("status"));
-
-        if(!json.isNull("wepKeys")) {
-            JSONArray wepKeys = json.getJSONArray("wepKeys");
-
-            for(int i = 0; i < wifiConfig.wepKeys.length; i++) {
-                if(!wepKeys.isNull(i)) wifiConfig.wepKeys[i] = wepKeys.getString(i);
-            }
-        }
+        return WifiConfigurationDecoder.fromJSON(args.getJSONObject(index));
+    }
 
-        if(!json.isNull("wepTxKeyIndex")) wifiConfig.wepTxKeyIndex = json.getInt("wepTxKeyIndex");
+    private static void putNetwork(Map<String, Integer> bssids, Map<String, Integer> ssids,
+                                   WifiConfiguration wifiConfig, int networkId) {
+        if(isBSSID(wifiConfig.BSSID)) bssids.put(wifiConfig.BSSID, networkId);
+        if(wifiConfig.SSID != null) ssids.put(wifiConfig.SSID, networkId);
+    }
 
-        return  wifiConfig;
+    private static boolean isBSSID(String bssid) {
+        // Configurations not bound to an access point use "any"
+        return bssid != null && !bssid.equals("any");
     }
 
-    private static String toStringWifiApState(int wifiApState) {
-        if (wifiApState == WIFI_AP_STATE_DISABLED) return "DISABLED";
-        else if (wifiApState == WIFI_AP_STATE_DISABLING) return "DISABLING";
-        else if (wifiApState == WIFI_AP_STATE_ENABLED) return "ENABLED";
-        else if (wifiApState == WIFI_AP_STATE_ENABLING) return "ENABLING";
-        else if (wifiApState == WIFI_AP_STATE_FAILED) return "FAILED";
+    private String toStringWifiApState(int wifiApState) {
+        if (wifiApState == hiddenApi.getIntField(HiddenApi.WIFI_AP_STATE_DISABLED)) return "DISABLED";
+        else if (wifiApState == hiddenApi.getIntField(HiddenApi.WIFI_AP_STATE_DISABLING)) return "DISABLING";
+        else if (wifiApState == hiddenApi.getIntField(HiddenApi.WIFI_AP_STATE_ENABLED)) return "ENABLED";
+        else if (wifiApState == hiddenApi.getIntField(HiddenApi.WIFI_AP_STATE_ENABLING)) return "ENABLING";
+        else if (wifiApState == hiddenApi.getIntField(HiddenApi.WIFI_AP_STATE_FAILED)) return "FAILED";
         else return null;
     }
 
@@ -762,11 +1452,16 @@ public class WifiManagerPlugin extends CordovaPlugin {
         }
     }
 
-    private static int fromStringWifiConfigurationStatus(String status) {
-        if(status.equals("CURRENT")) return WifiConfiguration.Status.CURRENT;
-        if(status.equals("DISABLED")) return WifiConfiguration.Status.DISABLED;
-        if(status.equals("ENABLED")) return WifiConfiguration.Status.ENABLED;
-        return -1;
+    private List<String> toActions(JSONArray events) throws JSONException {
+        List<String> actions = new ArrayList<String>();
+
+        for(int i = 0; i < events.length(); i++) {
+            // Events this device does not broadcast are ignored
+            String action = wifiEvents.getAction(events.getString(i));
+            if(action != null) actions.add(action);
+        }
+
+        return actions;
     }
 
     private static PluginResult OK(Object obj) throws JSONException {
@@ -783,35 +1478,58 @@ public class WifiManagerPlugin extends CordovaPlugin {
         return new PluginResult(status, json);
     }
 
-    private static int getIntField(String name) {
-        try {
-            Field field = WifiManager.class.getDeclaredField(name);
-            if(!Modifier.isStatic(field.getModifiers())) return -1;
-            if(!field.getType().isAssignableFrom(Integer.TYPE)) return -1;
-            return field.getInt(null);
-        } catch(NoSuchFieldException e) {
-            return -1;
-        } catch(IllegalAccessException e) {
-            return -1;
-        }
+    private PermissionGate createPermissionGate() {
+        // Actions held back for a permission run again once it is granted,
+        // under the same execution policy as when they were first called but
+        // never on the thread that delivered the permission result. Batch
+        // entries run again in their batch, which waits for them.
+        PermissionGate gate = new PermissionGate(new PermissionGate.Listener() {
+            @Override
+            public void onGranted(String action, JSONArray args, CallbackContext callbackContext) {
+                if(!ActionBatch.replay(callbackContext, cordova.getThreadPool())) {
+                    dispatcher.dispatchLater(action, args, callbackContext);
+                }
+            }
+
+            @Override
+            public void onDenied(String permission, CallbackContext callbackContext) throws JSONException {
+                callbackContext.sendPluginResult(ERROR("Permission denied " + permission));
+            }
+        });
+        gate.add(ACCESS_COARSE_LOCATION, new PermissionGate.Permission() {
+            @Override
+            public boolean check() {
+                return cordova.hasPermission(ACCESS_COARSE_LOCATION) ||
+                        cordova.hasPermission(ACCESS_FINE_LOCATION);
+            }
+
+            @Override
+            public void request() {
+                cordova.requestPermission(WifiManagerPlugin.this, REQUEST_CODE_SCAN_RESULTS, ACCESS_COARSE_LOCATION);
+            }
+        });
+        gate.add(WRITE_SETTINGS, new PermissionGate.Permission() {
+            @Override
+            public boolean check() {
+                return hasWriteSettingsPermission();
+            }
+
+            @Override
+            public void request() {
+                Intent intent = new Intent(ACTION_MANAGE_WRITE_SETTINGS);
+                cordova.startActivityForResult(WifiManagerPlugin.this, intent, REQUEST_CODE_WIFI_AP_ENABLE);
+            }
+        });
+
+        return gate;
     }
 
-    private static String getStringField(String name) {
-        try {
-            Field field = WifiManager.class.getDeclaredField(name);
-            if(!Modifier.isStatic(field.getModifiers())) return null;
-            if(!field.getType().isAssignableFrom(String.class)) return null;
-            return (String) field.get(null);
-        } catch(NoSuchFieldException e) {
-            return null;
-        } catch(IllegalAccessException e) {
-            return null;
-        }
+    private boolean requestLocationPermission(String action, JSONArray args, CallbackContext callbackContext) {
+        return permissionGate.require(ACCESS_COARSE_LOCATION, action, args, callbackContext);
     }
 
     private boolean hasLocationPermission() {
-        return cordova.hasPermission(ACCESS_COARSE_LOCATION) ||
-                cordova.hasPermission(ACCESS_FINE_LOCATION);
+        return permissionGate.isGranted(ACCESS_COARSE_LOCATION);
     }
 
     private boolean hasWriteSettingsPermission() {
@@ -823,102 +1541,234 @@ public class WifiManagerPlugin extends CordovaPlugin {
         return Settings.System.canWrite(context);
     }
 
+    private void sendResumed() {
+        long start = System.nanoTime();
+        PluginResult result;
+
+        try {
+            JSONObject summary = pausedEvents.resume(new PausedEvents.Encoder() {
+                @Override
+                public Object encode(Intent intent) throws JSONException {
+                    return toEventData(intent, false);
+                }
+            });
+
+            // Nothing was listening while paused
+            if(summary == null) return;
+
+            JSONObject json = new JSONObject();
+            json.put("event", PausedEvents.EVENT_RESUMED);
+            json.put("data", summary);
+            result = new PluginResult(PluginResult.Status.OK, json);
+        } catch(JSONException e) {
+            result = new PluginResult(PluginResult.Status.JSON_EXCEPTION, e.getMessage());
+        }
+
+        sendEvent(PausedEvents.EVENT_RESUMED, start, result);
+
+        for(EventSubscribers.Subscriber subscriber : subscribers.get(PausedEvents.EVENT_RESUMED)) {
+            sendEvent(subscriber.callbackContext, PausedEvents.EVENT_RESUMED, start, result);
+        }
+    }
+
+    private void listen(EventSubscribers.Subscriber subscriber, boolean listen) {
+        for(Map.Entry<String, String> entry : wifiEvents.getActions().entrySet()) {
+            if(!subscriber.accepts(entry.getKey())) continue;
+
+            if(listen) registration.listen(entry.getValue());
+            else registration.unlisten(entry.getValue());
+        }
+    }
+
+    private void closeListener(EventSubscribers.Subscriber subscriber) {
+        listen(subscriber, false);
+
+        // Events held back are still delivered before the callback is released
+        if(subscriber.throttle != null) subscriber.throttle.configure(null);
+
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(false);
+        subscriber.callbackContext.sendPluginResult(result);
+    }
+
+    private void sendEvent(String event, long start, PluginResult result) {
+        sendEvent(onChange, event, start, result);
+    }
+
+    private void sendEvent(CallbackContext callbackContext, String event, long start, PluginResult result) {
+        if(callbackContext == null) return;
+
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+        stats.recordEvent(event, System.nanoTime() - start, result);
+    }
+
+    /**
+     * The data of the event the broadcast is sent to JavaScript as, with the
+     * scan results only if asked for and permitted.
+     */
+    private JSONObject toEventData(Intent intent, boolean withScanResults) throws JSONException {
+        String action = intent.getAction();
+        JSONObject data = new JSONObject();
+
+        if(action.equals(WifiManager.NETWORK_STATE_CHANGED_ACTION)) {
+            NetworkInfo networkInfo = intent.getParcelableExtra(WifiManager.EXTRA_NETWORK_INFO);
+            String bssid = intent.getStringExtra(WifiManager.EXTRA_BSSID);
+            WifiInfo wifiInfo = intent.getParcelableExtra(WifiManager.EXTRA_WIFI_INFO);
+
+            data.put("networkInfo", toJSON(networkInfo));
+            data.put("BSSID", bssid == null ? JSONObject.NULL : bssid);
+            data.put("wifiInfo", wifiInfo == null ? JSONObject.NULL : toJSON(wifiInfo, FieldProjection.ALL));
+        } else if(action.equals(WifiManager.RSSI_CHANGED_ACTION)) {
+            int rssi = intent.getIntExtra(WifiManager.EXTRA_NEW_RSSI, 0);
+            data.put("RSSI", rssi);
+        } else if(action.equals(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION)) {
+            boolean updated = intent.getBooleanExtra(WifiManager.EXTRA_RESULTS_UPDATED, false);
+            data.put("resultsUpdated", updated);
+
+            if(withScanResults && hasLocationPermission()) {
+                List<ScanResult> scanResults = getCachedScanResults(scanResultsCache.getGeneration());
+                data.put("scanResults", toJSON(scanResults, FieldProjection.ALL));
+            }
+        } else if(action.equals(WifiManager.SUPPLICANT_CONNECTION_CHANGE_ACTION)) {
+            boolean connected = intent.getBooleanExtra(WifiManager.EXTRA_SUPPLICANT_CONNECTED, false);
+            data.put("supplicantConnected", connected);
+        } else if(action.equals(WifiManager.SUPPLICANT_STATE_CHANGED_ACTION)) {
+            SupplicantState newState = intent.getParcelableExtra(WifiManager.EXTRA_NEW_STATE);
+            data.put("newState", newState);
+
+            if(intent.hasExtra(WifiManager.EXTRA_SUPPLICANT_ERROR)) {
+                int error = intent.getIntExtra(WifiManager.EXTRA_SUPPLICANT_ERROR, 0);
+                String name = error == WifiManager.ERROR_AUTHENTICATING ?
+                        "ERROR_AUTHENTICATING" : "ERROR_UNKNOWN";
+                data.put("supplicantError", name);
+            } else {
+                data.put("supplicantError", JSONObject.NULL);
+            }
+        } else if(action.equals(WifiManager.WIFI_STATE_CHANGED_ACTION)) {
+            int newState = intent.getIntExtra(WifiManager.EXTRA_WIFI_STATE, 0);
+            int prevState = intent.getIntExtra(WifiManager.EXTRA_PREVIOUS_WIFI_STATE, 0);
+
+            data.put("wifiState", toStringWifiState(newState));
+            data.put("previousWifiState", toStringWifiState(prevState));
+        } else if(action.equals(hiddenApi.getStringField(HiddenApi.WIFI_AP_STATE_CHANGED_ACTION))) {
+            int newState = intent.getIntExtra(hiddenApi.getStringField(HiddenApi.EXTRA_WIFI_AP_STATE), 0);
+            int prevState = intent.getIntExtra(hiddenApi.getStringField(HiddenApi.EXTRA_PREVIOUS_WIFI_AP_STATE), 0);
+
+            data.put("wifiApState", toStringWifiApState(newState));
+            data.put("previousWifiApState", toStringWifiApState(prevState));
+        }
+
+        return data;
+    }
+
     private class WifiBroadcastReceiver extends BroadcastReceiver {
         @Override
         public void onReceive(Context context, Intent intent) {
-            if(onChange == null) return;
+            long start = System.nanoTime();
 
-            PluginResult result = null;
-            String event = null;
+            try {
+                handle(intent);
+            } finally {
+                String thread = Looper.myLooper() == Looper.getMainLooper() ? THREAD_MAIN : THREAD_BACKGROUND;
+                stats.recordReceiver(thread, System.nanoTime() - start);
+            }
+        }
+
+        private void track(Intent intent) {
             String action = intent.getAction();
-            JSONObject json = new JSONObject();
-            JSONObject data = new JSONObject();
 
-            try {
-                if(action.equals(WifiManager.NETWORK_IDS_CHANGED_ACTION)) {
-                    event = "NETWORK_IDS_CHANGED";
-                } else if(action.equals(WifiManager.NETWORK_STATE_CHANGED_ACTION)) {
-                    event = "NETWORK_STATE_CHANGED";
-
-                    NetworkInfo networkInfo = intent.getParcelableExtra(WifiManager.EXTRA_NETWORK_INFO);
-                    String bssid = intent.getStringExtra(WifiManager.EXTRA_BSSID);
-                    WifiInfo wifiInfo = intent.getParcelableExtra(WifiManager.EXTRA_WIFI_INFO);
-
-                    data.put("networkInfo", toJSON(networkInfo));
-                    data.put("BSSID", bssid == null ? JSONObject.NULL : bssid);
-                    data.put("wifiInfo", wifiInfo == null ? JSONObject.NULL : toJSON(wifiInfo));
-                } else if(action.equals(WifiManager.RSSI_CHANGED_ACTION)) {
-                    event = "RSSI_CHANGED";
-                    int rssi = intent.getIntExtra(WifiManager.EXTRA_NEW_RSSI, 0);
-                    data.put("RSSI", rssi);
-                } else if(action.equals(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION)) {
-                    event = "SCAN_RESULTS_AVAILABLE";
-                    boolean updated = intent.getBooleanExtra(WifiManager.EXTRA_RESULTS_UPDATED, false);
-                    data.put("resultsUpdated", updated);
-                } else if(action.equals(WifiManager.SUPPLICANT_CONNECTION_CHANGE_ACTION)) {
-                    event = "SUPPLICANT_CONNECTION_CHANGE";
-                    boolean connected = intent.getBooleanExtra(WifiManager.EXTRA_SUPPLICANT_CONNECTED, false);
-                    data.put("supplicantConnected", connected);
-                } else if(action.equals(WifiManager.SUPPLICANT_STATE_CHANGED_ACTION)) {
-                    event = "SUPPLICANT_STATE_CHANGED";
-
-                    SupplicantState newState = intent.getParcelableExtra(WifiManager.EXTRA_NEW_STATE);
-                    data.put("newState", newState);
-
-                    if(intent.hasExtra(WifiManager.EXTRA_SUPPLICANT_ERROR)) {
-                        int error = intent.getIntExtra(WifiManager.EXTRA_SUPPLICANT_ERROR, 0);
-                        String name = error == WifiManager.ERROR_AUTHENTICATING ?
-                                "ERROR_AUTHENTICATING" : "ERROR_UNKNOWN";
-                        data.put("supplicantError", name);
-                    } else {
-                        data.put("supplicantError", JSONObject.NULL);
-                    }
-                } else if(action.equals(WifiManager.WIFI_STATE_CHANGED_ACTION)) {
-                    event = "WIFI_STATE_CHANGED";
+            if(WifiManager.NETWORK_STATE_CHANGED_ACTION.equals(action)) {
+                NetworkInfo networkInfo = intent.getParcelableExtra(WifiManager.EXTRA_NETWORK_INFO);
+                if(networkInfo == null || !networkInfo.isConnected()) return;
+
+                // Newer platforms leave out the WifiInfo
+                WifiInfo wifiInfo = intent.getParcelableExtra(WifiManager.EXTRA_WIFI_INFO);
+                if(wifiInfo == null) wifiInfo = backend.getConnectionInfo();
+                if(wifiInfo != null) connectionTracker.onConnected(wifiInfo.getNetworkId());
+            } else if(WifiManager.SUPPLICANT_STATE_CHANGED_ACTION.equals(action)) {
+                int error = intent.getIntExtra(WifiManager.EXTRA_SUPPLICANT_ERROR, -1);
+                if(error == WifiManager.ERROR_AUTHENTICATING) connectionTracker.onAuthenticationError();
+            }
+        }
 
-                    int newState = intent.getIntExtra(WifiManager.EXTRA_WIFI_STATE, 0);
-                    int prevState = intent.getIntExtra(WifiManager.EXTRA_PREVIOUS_WIFI_STATE, 0);
+        private void handle(Intent intent) {
+            String action = intent.getAction();
 
-                    data.put("wifiState", toStringWifiState(newState));
-                    data.put("previousWifiState", toStringWifiState(prevState));
-                } else if(WIFI_AP_STATE_CHANGED_ACTION != null && action.equals(WIFI_AP_STATE_CHANGED_ACTION)) {
-                    event = "WIFI_AP_STATE_CHANGED";
+            if(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION.equals(action) ||
+                    WifiManager.WIFI_STATE_CHANGED_ACTION.equals(action)) {
+                scanResultsCache.invalidate();
+            }
 
-                    int newState = intent.getIntExtra(EXTRA_WIFI_AP_STATE, 0);
-                    int prevState = intent.getIntExtra(EXTRA_PREVIOUS_WIFI_AP_STATE, 0);
+            // After the invalidation, so waiters see the new results
+            if(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION.equals(action)) scanScheduler.onScanResultsAvailable();
 
-                    data.put("wifiApState", toStringWifiApState(newState));
-                    data.put("previousWifiApState", toStringWifiApState(prevState));
-                }
+            if(WifiManager.NETWORK_IDS_CHANGED_ACTION.equals(action)) networkIndex.invalidate();
+            if(connectionTracker.isTracking()) track(intent);
+
+            if(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION.equals(action) && recordingScanHistory &&
+                    intent.getBooleanExtra(WifiManager.EXTRA_RESULTS_UPDATED, false)) {
+                recordScanHistory();
+            }
+
+            if(WifiManager.RSSI_CHANGED_ACTION.equals(action) && linkSampler.isSampling()) {
+                linkSampler.onRssiChanged(intent.getIntExtra(WifiManager.EXTRA_NEW_RSSI, 0));
+            }
+
+            String event = wifiEvents.getEvent(action);
+            boolean subscribed = onChange != null && registration.isSubscribed(action);
+            List<EventSubscribers.Subscriber> listeners = subscribers.get(event);
+            if(!subscribed && listeners.isEmpty()) return;
 
-                json.put("event", event);
-                json.put("data", data);
+            // Encoded once for every callback it goes to
+            long start = System.nanoTime();
+            PluginResult result = null;
+            JSONObject json = null;
 
-                result = new PluginResult(PluginResult.Status.OK, json);
+            try {
+                String format = scanResultsEventFormat;
+
+                if(action.equals(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION) && FORMAT_BINARY.equals(format) &&
+                        hasLocationPermission()) {
+                    List<ScanResult> scanResults = getCachedScanResults(scanResultsCache.getGeneration());
+
+                    if(ScanResultsEncoder.canEncode(scanResults)) {
+                        boolean updated = intent.getBooleanExtra(WifiManager.EXTRA_RESULTS_UPDATED, false);
+                        int flags = updated ? ScanResultsEncoder.FLAG_RESULTS_UPDATED : 0;
+                        byte[] bytes = ScanResultsEncoder.encode(scanResults,
+                                ScanResultsEncoder.KIND_SCAN_RESULTS_EVENT, flags);
+                        result = new PluginResult(PluginResult.Status.OK, bytes);
+                    }
+                }
+
+                if(result == null) {
+                    json = new JSONObject();
+                    json.put("event", event);
+                    json.put("data", toEventData(intent, format != null));
+                }
             } catch(JSONException e) {
+                json = null;
                 result = new PluginResult(PluginResult.Status.JSON_EXCEPTION, e.getMessage());
             }
 
-            result.setKeepCallback(true);
-            onChange.sendPluginResult(result);
-        }
-    }
-
-    private class CallbackClosure {
-        private JSONArray args;
-        private CallbackContext callbackContext;
+            String name = event == null ? action : event;
 
-        public CallbackClosure(JSONArray args, CallbackContext callbackContext) {
-            this.args = args;
-            this.callbackContext = callbackContext;
-        }
+            if(subscribed) {
+                if(json != null && eventThrottle.offer(event, json)) {
+                    stats.recordEvent(event, System.nanoTime() - start, null);
+                } else {
+                    if(result == null) result = new PluginResult(PluginResult.Status.OK, json);
+                    sendEvent(name, start, result);
+                }
+            }
 
-        public JSONArray getArgs() {
-            return args;
-        }
+            for(EventSubscribers.Subscriber listener : listeners) {
+                if(json != null && listener.throttle != null && listener.throttle.offer(event, json)) continue;
 
-        public CallbackContext getCallbackContext() {
-            return callbackContext;
+                // Not built at all if every callback holds the event back
+                if(result == null) result = new PluginResult(PluginResult.Status.OK, json);
+                sendEvent(listener.callbackContext, name, start, result);
+            }
         }
     }
 }
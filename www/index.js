@@ -1,32 +1,135 @@
 var METHODS = [
   'addNetwork',
+  'addNetworks',
+  'compactScanHistory',
+  'connect',
   'disableNetwork',
   'disconnect',
   'enableNetwork',
+  'findNetwork',
+  'getCapabilities',
   'getConfiguredNetworks',
   'getConnectionInfo',
   'getDhcpInfo',
+  'getLinkStats',
+  'getNetwork',
+  'getPluginStats',
   'getScanResults',
+  'getScanResultsSince',
+  'getSnapshot',
   'getWifiApConfiguration',
   'getWifiApState',
   'getWifiState',
   'isScanAlwaysAvailable',
   'isWifiApEnabled',
   'isWifiEnabled',
+  'queryScanHistory',
   'reassociate',
   'reconnect',
   'removeNetwork',
+  'resetPluginStats',
   'saveConfiguration',
+  'scanAndWait',
+  'setEventOptions',
+  'setEventThrottle',
   'setWifiApConfiguration',
   'setWifiApEnabled',
   'setWifiEnabled',
+  'startLinkSampling',
+  'startPeriodicScan',
   'startScan',
+  'startScanHistory',
+  'stopLinkSampling',
+  'stopPeriodicScan',
+  'stopScanHistory',
   'updateNetwork'
 ]
 
+var EVENTS = [
+  'networkidschanged',
+  'networkstatechanged',
+  'rssichanged',
+  'scanresultsavailable',
+  'supplicantconnectionchange',
+  'supplicantstatechanged',
+  'wifiapstatechanged',
+  'wifistatechanged'
+]
+
+var CHANNEL_WIDTHS = ['20MHZ', '40MHZ', '80MHZ', '160MHZ', '80MHZ_PLUS_MHZ']
+var FLAG_RESULTS_UPDATED = 1
+var NULL_STRING = 0xffff
+
 var noop = function () {}
 var slice = Array.prototype.slice
 
+var decodeUtf8 = function (bytes) {
+  if (typeof TextDecoder !== 'undefined') return new TextDecoder('utf-8').decode(bytes)
+
+  var str = ''
+  for (var i = 0; i < bytes.length; i++) str += String.fromCharCode(bytes[i])
+  return decodeURIComponent(escape(str))
+}
+
+var hex = function (byte) {
+  return (byte < 16 ? '0' : '') + byte.toString(16)
+}
+
+// Inverse of ScanResultsEncoder.java
+var decodeScanResults = function (buffer) {
+  var view = new DataView(buffer)
+  var flags = view.getUint16(2)
+  var count = view.getUint32(4)
+  var stringCount = view.getUint32(8)
+
+  var bssids = 12
+  var frequencies = bssids + count * 6
+  var centerFreqs0 = frequencies + count * 2
+  var centerFreqs1 = centerFreqs0 + count * 2
+  var channelWidths = centerFreqs1 + count * 2
+  var levels = channelWidths + count
+  var timestamps = levels + count
+  var ssids = timestamps + count * 8
+  var capabilities = ssids + count * 2
+  var offset = capabilities + count * 2
+
+  var strings = []
+
+  for (var i = 0; i < stringCount; i++) {
+    var length = view.getUint16(offset)
+    strings.push(decodeUtf8(new Uint8Array(buffer, offset + 2, length)))
+    offset += 2 + length
+  }
+
+  var string = function (index) {
+    return index === NULL_STRING ? null : strings[index]
+  }
+
+  var scanResults = []
+
+  for (var j = 0; j < count; j++) {
+    var bssid = []
+    for (var k = 0; k < 6; k++) bssid.push(hex(view.getUint8(bssids + j * 6 + k)))
+
+    scanResults.push({
+      BSSID: bssid.join(':'),
+      SSID: string(view.getUint16(ssids + j * 2)),
+      capabilities: string(view.getUint16(capabilities + j * 2)),
+      centerFreq0: view.getUint16(centerFreqs0 + j * 2),
+      centerFreq1: view.getUint16(centerFreqs1 + j * 2),
+      channelWidth: CHANNEL_WIDTHS[view.getUint8(channelWidths + j)] || null,
+      frequency: view.getUint16(frequencies + j * 2),
+      level: view.getInt8(levels + j),
+      timestamp: view.getInt32(timestamps + j * 8) * 4294967296 + view.getUint32(timestamps + j * 8 + 4)
+    })
+  }
+
+  return {
+    resultsUpdated: (flags & FLAG_RESULTS_UPDATED) !== 0,
+    scanResults: scanResults
+  }
+}
+
 var toError = function (obj) {
   if (!obj) return new Error('ERROR')
   if (obj instanceof Error) return obj
@@ -34,6 +137,21 @@ var toError = function (obj) {
   return new Error(obj)
 }
 
+// Calls cb with every event in a result, the binary scan results event and
+// batches of throttled events are unpacked
+var forEachEvent = function (result, cb) {
+  if (result instanceof ArrayBuffer) {
+    result = { event: 'SCAN_RESULTS_AVAILABLE', data: decodeScanResults(result) }
+  }
+
+  if (result.event === 'BATCH') result.data.forEach(cb)
+  else cb(result)
+}
+
+var toEventName = function (event) {
+  return event.replace(/_/g, '').toLowerCase()
+}
+
 var exec = function (method, args, cb) {
   var onsucces = function () {
     var args = slice.call(arguments)
@@ -49,18 +167,58 @@ var exec = function (method, args, cb) {
 }
 
 var WifiManager = function () {
-  this.onnetworkidschanged = null
-  this.onnetworkstatechanged = null
-  this.onrssichanged = null
-  this.onscanresultsavailable = null
-  this.onsupplicantconnectionchange = null
-  this.onsupplicantstatechanged = null
-  this.onwifiapstatechanged = null
-  this.onwifistatechanged = null
-  this.onevent = null
-  this.onerror = null
-
   var self = this
+  var handlers = {}
+  var listeners = []
+  var nextListenerId = 1
+  // The native side delivers every event until told otherwise
+  var subscribed = EVENTS.slice()
+  var syncing = false
+
+  // Only ask for the events that have a handler, so the app is not
+  // woken up for broadcasts nobody listens to
+  var sync = function () {
+    syncing = false
+
+    var wanted = EVENTS.filter(function (event) {
+      return self.onevent || self['on' + event]
+    })
+
+    var added = wanted.filter(function (event) {
+      return subscribed.indexOf(event) === -1
+    })
+
+    var removed = subscribed.filter(function (event) {
+      return wanted.indexOf(event) === -1
+    })
+
+    subscribed = wanted
+
+    if (added.length) exec('subscribe', [added], noop)
+    if (removed.length) exec('unsubscribe', [removed], noop)
+  }
+
+  EVENTS.concat('event').forEach(function (event) {
+    var name = 'on' + event
+    handlers[name] = null
+
+    Object.defineProperty(self, name, {
+      enumerable: true,
+      get: function () {
+        return handlers[name]
+      },
+      set: function (cb) {
+        var changed = handlers[name] !== cb
+        handlers[name] = cb
+        if (!changed || syncing) return
+        syncing = true
+        setTimeout(sync, 0)
+      }
+    })
+  })
+
+  this.onerror = null
+  this.onresumed = null
 
   exec('onChange', null, function (err, result) {
     if (err) {
@@ -68,11 +226,66 @@ var WifiManager = function () {
       return
     }
 
-    var event = result.event.replace(/_/g, '').toLowerCase()
+    forEachEvent(result, emit)
+  })
+
+  var emit = function (result) {
+    var event = toEventName(result.event)
     var cb = self['on' + event]
     if (cb) cb.call(self, result.data)
     if (self.onevent) self.onevent(event, result.data)
-  })
+  }
+
+  var toEvents = function (events) {
+    if (events === '*') return null
+    return (Array.isArray(events) ? events : [events]).map(toEventName)
+  }
+
+  // Every listener has its own native subscription, with its own events
+  // and throttling, independent of the on* callbacks and of each other
+  this.addListener = function (events, options, listener) {
+    if (typeof options === 'function') {
+      listener = options
+      options = null
+    }
+
+    var entry = { id: String(nextListenerId++), events: toEvents(events), listener: listener }
+    listeners.push(entry)
+
+    // The on* callbacks get only the events they have a callback for
+    if (!syncing) {
+      syncing = true
+      setTimeout(sync, 0)
+    }
+
+    exec('addListener', [entry.id, entry.events, options || {}], function (err, result) {
+      if (err) {
+        if (self.onerror) self.onerror(err)
+        return
+      }
+
+      forEachEvent(result, function (result) {
+        listener.call(self, result.data, toEventName(result.event))
+      })
+    })
+
+    return this
+  }
+
+  this.removeListener = function (events, listener) {
+    var key = String(toEvents(events))
+
+    listeners = listeners.filter(function (entry) {
+      if (entry.listener !== listener || String(entry.events) !== key) return true
+      exec('removeListener', [entry.id], noop)
+      return false
+    })
+
+    return this
+  }
+
+  this.on = this.addListener
+  this.off = this.removeListener
 }
 
 METHODS.forEach(function (method) {
@@ -85,9 +298,56 @@ METHODS.forEach(function (method) {
 
     exec(method, args, function (err, result) {
       if (err) return cb(err)
-      cb(null, result.data)
+      if (result instanceof ArrayBuffer) cb(null, decodeScanResults(result).scanResults)
+      else cb(null, result.data)
     })
   }
 })
 
+// Runs the operations in order in a single call, each result is either
+// { data } or { error }
+WifiManager.prototype.batch = function (operations, options, cb) {
+  if (typeof options === 'function') {
+    cb = options
+    options = null
+  }
+
+  cb = cb || noop
+
+  var entries = operations.map(function (operation) {
+    return { action: operation.action, args: operation.args || [] }
+  })
+
+  exec('batch', [entries, options || {}], function (err, results) {
+    if (err) return cb(err)
+
+    cb(null, results.map(function (result) {
+      return result.hasOwnProperty('error') ? { error: toError(result.error) } : { data: result.data }
+    }))
+  })
+}
+
+// The native side sends the list a page at a time, onpage gets each page as
+// it arrives and cb the total count once the last page has been delivered
+var stream = function (method) {
+  return function (options, onpage, cb) {
+    if (typeof options === 'function') {
+      cb = onpage
+      onpage = options
+      options = null
+    }
+
+    cb = cb || noop
+
+    exec(method, [options || {}], function (err, result) {
+      if (err) return cb(err)
+      if (result.end) cb(null, result.count)
+      else onpage(result.data)
+    })
+  }
+}
+
+WifiManager.prototype.streamConfiguredNetworks = stream('streamConfiguredNetworks')
+WifiManager.prototype.streamScanResults = stream('streamScanResults')
+
 module.exports = new WifiManager()